@@ -0,0 +1,171 @@
+package org.metaborg.spoofax.eclipse.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.widgets.Display;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Cache of SWT colors for a display, keyed by RGB value. Colors are shared between all users of the cache, and must not
+ * be disposed by them. Colors are disposed when the display is disposed, or when {@link #disposeAll()} is called, for
+ * example when a plugin stops. Can be used from any thread.
+ */
+public final class ColorCache {
+    private static final Map<Display, ColorCache> caches = Maps.newHashMap();
+
+    private final Display display;
+    private final ConcurrentMap<Integer, Color> colors = Maps.newConcurrentMap();
+    private volatile boolean disposed = false;
+
+
+    private ColorCache(Display display) {
+        this.display = display;
+    }
+
+
+    /**
+     * Gets the color cache for given display, creating it if needed.
+     *
+     * @param display
+     *            Display to get the color cache for.
+     * @return Color cache.
+     */
+    public static ColorCache get(final Display display) {
+        synchronized(caches) {
+            ColorCache cache = caches.get(display);
+            if(cache == null) {
+                cache = new ColorCache(display);
+                caches.put(display, cache);
+                cache.disposeWithDisplay();
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Disposes the colors of all color caches.
+     */
+    public static void disposeAll() {
+        final ColorCache[] toDispose;
+        synchronized(caches) {
+            toDispose = caches.values().toArray(new ColorCache[caches.size()]);
+        }
+        for(ColorCache cache : toDispose) {
+            cache.dispose();
+        }
+    }
+
+    /**
+     * @return Number of live color handles over all color caches.
+     */
+    public static int liveHandlesTotal() {
+        synchronized(caches) {
+            int count = 0;
+            for(ColorCache cache : caches.values()) {
+                count += cache.liveHandles();
+            }
+            return count;
+        }
+    }
+
+
+    /**
+     * Gets the shared SWT color for given Java color. The color must not be disposed by the caller.
+     *
+     * @param color
+     *            Java color.
+     * @return Shared SWT color.
+     */
+    public Color color(java.awt.Color color) {
+        return color(color.getRed(), color.getGreen(), color.getBlue());
+    }
+
+    /**
+     * Gets the shared SWT color for given RGB value. The color must not be disposed by the caller.
+     *
+     * @param red
+     *            Red component, between 0 and 255.
+     * @param green
+     *            Green component, between 0 and 255.
+     * @param blue
+     *            Blue component, between 0 and 255.
+     * @return Shared SWT color.
+     */
+    public Color color(int red, int green, int blue) {
+        if(disposed) {
+            // Cache was disposed while in use, continue with a fresh cache.
+            return get(display).color(red, green, blue);
+        }
+        final Integer key = (red & 0xFF) << 16 | (green & 0xFF) << 8 | (blue & 0xFF);
+        final Color existing = colors.get(key);
+        if(existing != null) {
+            return existing;
+        }
+        final Color color = new Color(display, red, green, blue);
+        final Color raced = colors.putIfAbsent(key, color);
+        if(raced != null) {
+            // Another thread created the same color concurrently, use theirs.
+            color.dispose();
+            return raced;
+        }
+        if(disposed) {
+            // Cache was disposed concurrently, and may have missed the new color. Disposing twice is harmless.
+            colors.remove(key, color);
+            color.dispose();
+            return get(display).color(red, green, blue);
+        }
+        return color;
+    }
+
+    /**
+     * @return Number of live color handles in this cache.
+     */
+    public int liveHandles() {
+        return colors.size();
+    }
+
+    /**
+     * Disposes all colors in this cache, and removes the cache. Colors must not be used after disposal.
+     */
+    public void dispose() {
+        synchronized(caches) {
+            if(caches.get(display) == this) {
+                caches.remove(display);
+            }
+        }
+        disposed = true;
+        for(Color color : colors.values()) {
+            color.dispose();
+        }
+        colors.clear();
+    }
+
+
+    private void disposeWithDisplay() {
+        final Runnable register = new Runnable() {
+            @Override public void run() {
+                if(display.isDisposed()) {
+                    dispose();
+                    return;
+                }
+                display.disposeExec(new Runnable() {
+                    @Override public void run() {
+                        dispose();
+                    }
+                });
+            }
+        };
+        if(display.isDisposed()) {
+            return;
+        }
+        // Display#disposeExec may only be called on the thread of the display.
+        if(display.getThread() == Thread.currentThread()) {
+            register.run();
+        } else {
+            display.asyncExec(register);
+        }
+    }
+}
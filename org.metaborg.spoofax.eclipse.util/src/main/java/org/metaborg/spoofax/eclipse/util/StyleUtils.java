@@ -111,7 +111,8 @@ public final class StyleUtils {
     }
 
     /**
-     * Creates an Eclipse color from given Java color.
+     * Gets an Eclipse color for given Java color. Colors are shared through the {@link ColorCache} of given display, and
+     * must not be disposed by the caller.
      * 
      * @param color
      *            Java color.
@@ -120,8 +121,7 @@ public final class StyleUtils {
      * @return Eclipse color.
      */
     public static Color createColor(java.awt.Color color, Display display) {
-        // GTODO: this color object needs to be disposed manually!
-        return new Color(display, color.getRed(), color.getGreen(), color.getBlue());
+        return ColorCache.get(display).color(color);
     }
 
     /**
@@ -3,6 +3,7 @@ package org.metaborg.spoofax.eclipse;
 import org.apache.commons.vfs2.FileSystemManager;
 import org.metaborg.core.MetaborgModule;
 import org.metaborg.core.editor.IEditorRegistry;
+import org.metaborg.core.language.ILanguageCache;
 import org.metaborg.core.processing.ILanguageChangeProcessor;
 import org.metaborg.core.processing.IProcessor;
 import org.metaborg.core.project.IProjectService;
@@ -13,8 +14,12 @@ import org.metaborg.spoofax.core.unit.ISpoofaxAnalyzeUnit;
 import org.metaborg.spoofax.core.unit.ISpoofaxAnalyzeUnitUpdate;
 import org.metaborg.spoofax.core.unit.ISpoofaxParseUnit;
 import org.metaborg.spoofax.core.unit.ISpoofaxTransformUnit;
+import org.metaborg.spoofax.eclipse.editor.AdaptiveEditorUpdateDelay;
+import org.metaborg.spoofax.eclipse.editor.EditorParseCache;
 import org.metaborg.spoofax.eclipse.editor.IEclipseEditorRegistry;
 import org.metaborg.spoofax.eclipse.editor.IEclipseEditorRegistryInternal;
+import org.metaborg.spoofax.eclipse.editor.IEditorUpdateDelay;
+import org.metaborg.spoofax.eclipse.editor.PersistentEditorCache;
 import org.metaborg.spoofax.eclipse.editor.SpoofaxEditorRegistry;
 import org.metaborg.spoofax.eclipse.job.GlobalSchedulingRules;
 import org.metaborg.spoofax.eclipse.language.EclipseLanguageChangeProcessor;
@@ -29,6 +34,7 @@ import org.spoofax.interpreter.terms.IStrategoTerm;
 
 import com.google.inject.Singleton;
 import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.Multibinder;
 
 public class SpoofaxEclipseModule extends SpoofaxModule {
     public SpoofaxEclipseModule() {
@@ -47,6 +53,14 @@ public class SpoofaxEclipseModule extends SpoofaxModule {
         bind(EclipseLanguageChangeProcessor.class).in(Singleton.class);
         bind(LanguageLoader.class).in(Singleton.class);
         bind(SpoofaxPreferences.class).in(Singleton.class);
+        bind(AdaptiveEditorUpdateDelay.class).in(Singleton.class);
+        bind(IEditorUpdateDelay.class).to(AdaptiveEditorUpdateDelay.class);
+        bind(EditorParseCache.class).in(Singleton.class);
+        bind(PersistentEditorCache.class).in(Singleton.class);
+        final Multibinder<ILanguageCache> languageCacheBinder =
+            Multibinder.newSetBinder(binder(), ILanguageCache.class);
+        languageCacheBinder.addBinding().to(EditorParseCache.class);
+        languageCacheBinder.addBinding().to(PersistentEditorCache.class);
     }
 
 
@@ -13,6 +13,8 @@ import org.metaborg.spoofax.core.Spoofax;
 import org.metaborg.spoofax.eclipse.editor.IEclipseEditorRegistryInternal;
 import org.metaborg.spoofax.eclipse.logging.LoggingConfiguration;
 import org.metaborg.spoofax.eclipse.processing.SpoofaxProcessor;
+import org.metaborg.spoofax.eclipse.util.ColorCache;
+import org.metaborg.spoofax.eclipse.util.MarkerLimits;
 import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +36,7 @@ public class SpoofaxPlugin extends AbstractUIPlugin implements IStartup {
         plugin = this;
 
         LoggingConfiguration.configure(SpoofaxPlugin.class, "/logback.xml");
+        MarkerLimits.setDefaults(getPreferenceStore());
 
         logger = LoggerFactory.getLogger(SpoofaxPlugin.class);
         logger.debug("Starting Spoofax plugin");
@@ -75,6 +78,8 @@ public class SpoofaxPlugin extends AbstractUIPlugin implements IStartup {
         injector = null;
         spoofax.close();
         spoofax = null;
+        logger.debug("Disposing {} cached colors", ColorCache.liveHandlesTotal());
+        ColorCache.disposeAll();
         logger = null;
         plugin = null;
         super.stop(context);
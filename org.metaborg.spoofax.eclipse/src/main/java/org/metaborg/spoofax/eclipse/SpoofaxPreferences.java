@@ -1,9 +1,13 @@
 package org.metaborg.spoofax.eclipse;
 
 import org.eclipse.core.commands.Command;
+import org.eclipse.core.commands.IStateListener;
+import org.eclipse.core.commands.State;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.commands.ICommandService;
+import org.eclipse.ui.handlers.RegistryToggleState;
 import org.metaborg.spoofax.eclipse.util.CommandStateUtils;
+import org.metaborg.spoofax.eclipse.util.MarkerUtils;
 
 import com.google.inject.Inject;
 
@@ -14,6 +18,9 @@ public class SpoofaxPreferences {
     private final Command disableIncrementalBuildCommand;
     private final Command disableEditorAnalysisCommand;
     private final Command delayEditorAnalysisCommand;
+    private final Command transientMarkersCommand;
+    private final Command persistentEditorCacheCommand;
+    private final Command prefetchCompletionsCommand;
 
 
     @Inject public SpoofaxPreferences() {
@@ -26,6 +33,20 @@ public class SpoofaxPreferences {
             commandService.getCommand("org.metaborg.spoofax.eclipse.command.disable.editoranalysis");
         this.delayEditorAnalysisCommand =
             commandService.getCommand("org.metaborg.spoofax.eclipse.command.delay.editoranalysis");
+        this.transientMarkersCommand =
+            commandService.getCommand("org.metaborg.spoofax.eclipse.command.transient.markers");
+        this.persistentEditorCacheCommand =
+            commandService.getCommand("org.metaborg.spoofax.eclipse.command.persistent.editorcache");
+        this.prefetchCompletionsCommand =
+            commandService.getCommand("org.metaborg.spoofax.eclipse.command.prefetch.completions");
+
+        // Marker utilities are static, keep their transient marker mode in sync with the toggle.
+        MarkerUtils.setTransientMarkers(transientMarkers());
+        transientMarkersCommand.getState(RegistryToggleState.STATE_ID).addListener(new IStateListener() {
+            @Override public void handleStateChange(State state, Object oldValue) {
+                MarkerUtils.setTransientMarkers((boolean) state.getValue());
+            }
+        });
     }
 
 
@@ -44,4 +65,16 @@ public class SpoofaxPreferences {
     public boolean delayEditorAnalysis() {
         return CommandStateUtils.toggleState(delayEditorAnalysisCommand);
     }
+
+    public boolean transientMarkers() {
+        return CommandStateUtils.toggleState(transientMarkersCommand);
+    }
+
+    public boolean persistentEditorCache() {
+        return CommandStateUtils.toggleState(persistentEditorCacheCommand);
+    }
+
+    public boolean prefetchCompletions() {
+        return CommandStateUtils.toggleState(prefetchCompletionsCommand);
+    }
 }
@@ -1,9 +1,16 @@
 package org.metaborg.spoofax.eclipse.build;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.metaborg.core.analysis.IAnalyzeUnit;
@@ -12,11 +19,14 @@ import org.metaborg.core.build.BuildInput;
 import org.metaborg.core.build.IBuildOutput;
 import org.metaborg.core.build.IBuilder;
 import org.metaborg.core.messages.IMessage;
+import org.metaborg.core.messages.MessageType;
 import org.metaborg.core.syntax.IParseUnit;
 import org.metaborg.core.transform.ITransformUnit;
 import org.metaborg.spoofax.eclipse.processing.Progress;
 import org.metaborg.spoofax.eclipse.project.EclipseProject;
 import org.metaborg.spoofax.eclipse.resource.IEclipseResourceService;
+import org.metaborg.spoofax.eclipse.util.MarkerLimiter;
+import org.metaborg.spoofax.eclipse.util.MarkerLimits;
 import org.metaborg.spoofax.eclipse.util.MarkerUtils;
 import org.metaborg.spoofax.eclipse.util.Nullable;
 import org.metaborg.util.Ref;
@@ -25,6 +35,10 @@ import org.metaborg.util.log.LoggerUtils;
 import org.metaborg.util.task.ICancel;
 import org.metaborg.util.task.IProgress;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+
 public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU extends IAnalyzeUnitUpdate, T extends ITransformUnit<?>>
     implements IWorkspaceRunnable {
     private static final ILogger logger = LoggerUtils.logger(BuildRunnable.class);
@@ -62,6 +76,7 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
             return;
         }
 
+        final UnresolveCache resources = new UnresolveCache();
         final IProject eclipseProject = ((EclipseProject) input.project).eclipseProject;
         MarkerUtils.clearAll(eclipseProject);
 
@@ -71,7 +86,7 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
                 continue;
             }
 
-            final IResource eclipseResource = resourceService.unresolve(resource);
+            final IResource eclipseResource = resources.unresolve(resource);
             if(eclipseResource == null) {
                 logger.debug("Cannot clear markers for {}, resource is not in the Eclipse workspace", resource);
                 continue;
@@ -79,6 +94,9 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
             MarkerUtils.clearAll(eclipseResource);
         }
 
+        // Collect messages by resource, such that markers are limited per resource and created in one batch.
+        final MarkerLimiter limiter = new MarkerLimiter(MarkerLimits.fromPreferences());
+        final ListMultimap<IResource, IMessage> messages = ArrayListMultimap.create();
         for(P result : output.parseResults()) {
             if(output.includedResources().contains(result.source().getName())) {
                 // Don't create markers for included resources.
@@ -90,12 +108,12 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
                 if(resource == null) {
                     continue;
                 }
-                final IResource eclipseResource = resourceService.unresolve(resource);
+                final IResource eclipseResource = resources.unresolve(resource);
                 if(eclipseResource == null) {
                     logger.debug("Cannot create marker for {}, resource is not in the Eclipse workspace", resource);
                     continue;
                 }
-                MarkerUtils.createMarker(eclipseResource, message);
+                messages.put(eclipseResource, message);
             }
         }
 
@@ -112,12 +130,12 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
                     // resources.
                     continue;
                 }
-                final IResource eclipseResource = resourceService.unresolve(resource);
+                final IResource eclipseResource = resources.unresolve(resource);
                 if(eclipseResource == null) {
                     logger.debug("Cannot create marker for {}, resource is not in the Eclipse workspace", resource);
                     continue;
                 }
-                MarkerUtils.createMarker(eclipseResource, message);
+                messages.put(eclipseResource, message);
             }
         }
 
@@ -127,16 +145,20 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
                 // Don't create markers for included resources.
                 continue;
             }
-            final IResource eclipseResource = resourceService.unresolve(resource);
+            final IResource eclipseResource = resources.unresolve(resource);
             if(eclipseResource == null) {
                 logger.debug("Cannot clear or create markers for {}, resource is not in the Eclipse workspace",
                     resource);
                 continue;
             }
             MarkerUtils.clearAnalysis(eclipseResource);
-            for(IMessage message : update.messages()) {
-                MarkerUtils.createMarker(eclipseResource, message);
+            // Clearing also applies to analysis messages for this resource that have not been turned into markers yet.
+            for(Iterator<IMessage> iter = messages.get(eclipseResource).iterator(); iter.hasNext();) {
+                if(iter.next().type() == MessageType.ANALYSIS) {
+                    iter.remove();
+                }
             }
+            messages.putAll(eclipseResource, update.messages());
         }
 
         for(IMessage message : output.extraMessages()) {
@@ -146,14 +168,58 @@ public class BuildRunnable<P extends IParseUnit, A extends IAnalyzeUnit, AU exte
                 continue;
             }
 
-            final IResource eclipseResource = resourceService.unresolve(resource);
+            final IResource eclipseResource = resources.unresolve(resource);
             if(eclipseResource == null) {
                 logger.debug("Cannot create marker for {}, resource is not in the Eclipse workspace", resource);
                 continue;
             }
-            MarkerUtils.createMarker(eclipseResource, message);
+            messages.put(eclipseResource, message);
+        }
+        publish(messages, limiter, monitor);
+
+        logger.debug("Resolved {} distinct resources for {} messages and changed resources", resources.lookups,
+            resources.requests);
+        if(limiter.suppressed() > 0) {
+            logger.info("Suppressed {} markers in build of {}, marker limits were exceeded", limiter.suppressed(),
+                input.project);
         }
 
         outputRef.set(output);
     }
+
+    /**
+     * Caches Eclipse resources for the source file names of messages, such that each source is only unresolved once
+     * per build.
+     */
+    private class UnresolveCache {
+        private final Map<FileName, IResource> resources = Maps.newHashMap();
+        private int requests = 0;
+        private int lookups = 0;
+
+
+        public @Nullable IResource unresolve(FileObject resource) {
+            ++requests;
+            final FileName name = resource.getName();
+            if(resources.containsKey(name)) {
+                return resources.get(name);
+            }
+            ++lookups;
+            final IResource eclipseResource = resourceService.unresolve(resource);
+            resources.put(name, eclipseResource);
+            return eclipseResource;
+        }
+    }
+
+
+    /**
+     * Creates markers for given messages, limited per resource, in one batch.
+     */
+    private void publish(ListMultimap<IResource, IMessage> messages, MarkerLimiter limiter, IProgressMonitor monitor)
+        throws CoreException {
+        final ListMultimap<IResource, IMessage> limited = ArrayListMultimap.create();
+        for(Entry<IResource, Collection<IMessage>> entry : messages.asMap().entrySet()) {
+            limited.putAll(entry.getKey(), limiter.limit(entry.getValue()));
+        }
+        MarkerUtils.createMarkers(ResourcesPlugin.getWorkspace(), limited, monitor);
+    }
 }
@@ -113,6 +113,11 @@ public abstract class ProjectBuilder<P extends IParseUnit, A extends IAnalyzeUni
                 final IResourceDelta delta = getDelta(eclipseProject);
                 if(delta == null) {
                     task = fullBuild(project, monitor);
+                } else if(preferences.transientMarkers() && !states.containsKey(eclipseProject)) {
+                    // Transient markers are not restored at startup. Do a full build when the project is first built
+                    // in this session, to recreate its markers.
+                    logger.debug("Performing full build of {} to recreate transient markers", project);
+                    task = fullBuild(project, monitor);
                 } else {
                     task = incrBuild(project, states.get(eclipseProject), delta, monitor);
                 }
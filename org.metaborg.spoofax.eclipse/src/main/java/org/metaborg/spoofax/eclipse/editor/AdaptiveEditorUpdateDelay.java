@@ -0,0 +1,149 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Editor update delay strategy that learns per file from measured parse and analysis durations, and from the rate at
+ * which the user is typing. Cheap parses run right away, messages are shown when the user pauses typing, and expensive
+ * analyses wait longer so that fewer of them are started. All delays are kept within fixed bounds, and fall back to the
+ * defaults of {@link FixedEditorUpdateDelay} for files that have not been measured yet.
+ */
+public class AdaptiveEditorUpdateDelay implements IEditorUpdateDelay {
+    private static final int maxTrackedFiles = 1024;
+    /**
+     * Weight of new measurements in the moving averages.
+     */
+    private static final double alpha = 0.3;
+    /**
+     * Edits further apart than this are not considered part of the same burst of typing.
+     */
+    private static final long maxTypingIntervalMs = 2000;
+
+    private static final long minUpdateDelayMs = 20;
+    private static final long maxUpdateDelayMs = 300;
+    private static final long minParseMessagesDelayMs = 50;
+    private static final long maxParseMessagesDelayMs = 300;
+    private static final long minAnalysisDelayMs = 100;
+    private static final long maxAnalysisDelayMs = 5000;
+
+    private static final long defaultUpdateDelayMs = 300;
+    private static final long defaultParseMessagesDelayMs = 300;
+    private static final long defaultAnalysisDelayMs = 500;
+
+
+    private static class Stats {
+        private long lastEditMs = -1;
+        private double typingIntervalMs = -1;
+        private double parseMs = -1;
+        private double analysisMs = -1;
+
+
+        synchronized void edited(long nowMs) {
+            if(lastEditMs >= 0) {
+                final long interval = nowMs - lastEditMs;
+                if(interval <= maxTypingIntervalMs) {
+                    typingIntervalMs = average(typingIntervalMs, interval);
+                }
+            }
+            lastEditMs = nowMs;
+        }
+
+        synchronized void parsed(long durationMs) {
+            parseMs = average(parseMs, durationMs);
+        }
+
+        synchronized void analyzed(long durationMs) {
+            analysisMs = average(analysisMs, durationMs);
+        }
+
+
+        synchronized long updateDelay() {
+            if(parseMs < 0) {
+                return defaultUpdateDelayMs;
+            }
+            if(typingIntervalMs < 0 || parseMs <= typingIntervalMs) {
+                // Parsing is done before the next keystroke comes in, parse right away.
+                return minUpdateDelayMs;
+            }
+            // Parsing is slower than typing, wait for a pause in typing.
+            return clamp((long) (typingIntervalMs * 1.5), minUpdateDelayMs, maxUpdateDelayMs);
+        }
+
+        synchronized long parseMessagesDelay() {
+            if(typingIntervalMs < 0) {
+                return defaultParseMessagesDelayMs;
+            }
+            return clamp((long) (typingIntervalMs * 2), minParseMessagesDelayMs, maxParseMessagesDelayMs);
+        }
+
+        synchronized long analysisDelay() {
+            if(analysisMs < 0 && typingIntervalMs < 0) {
+                return defaultAnalysisDelayMs;
+            }
+            final double delay = Math.max(typingIntervalMs * 2, analysisMs * 2);
+            return clamp((long) delay, minAnalysisDelayMs, maxAnalysisDelayMs);
+        }
+
+
+        private static double average(double average, long value) {
+            if(average < 0) {
+                return value;
+            }
+            return alpha * value + (1 - alpha) * average;
+        }
+
+        private static long clamp(long value, long min, long max) {
+            return Math.max(min, Math.min(max, value));
+        }
+    }
+
+
+    private final Cache<FileName, Stats> stats = CacheBuilder.newBuilder().maximumSize(maxTrackedFiles).build();
+
+
+    @Override public void edited(FileObject resource) {
+        stats(resource).edited(System.currentTimeMillis());
+    }
+
+    @Override public void parsed(FileObject resource, long durationMs) {
+        stats(resource).parsed(durationMs);
+    }
+
+    @Override public void analyzed(FileObject resource, long durationMs) {
+        stats(resource).analyzed(durationMs);
+    }
+
+
+    @Override public long updateDelay(FileObject resource) {
+        return stats(resource).updateDelay();
+    }
+
+    @Override public long parseMessagesDelay(FileObject resource) {
+        return stats(resource).parseMessagesDelay();
+    }
+
+    @Override public long analysisDelay(FileObject resource) {
+        return stats(resource).analysisDelay();
+    }
+
+
+    private Stats stats(FileObject resource) {
+        try {
+            return stats.get(resource.getName(), new Callable<Stats>() {
+                @Override public Stats call() {
+                    return new Stats();
+                }
+            });
+        } catch(ExecutionException e) {
+            // Cannot happen, creating stats does not throw.
+            return new Stats();
+        }
+    }
+}
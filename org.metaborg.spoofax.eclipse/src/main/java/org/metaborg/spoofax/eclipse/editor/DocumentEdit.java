@@ -0,0 +1,125 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+
+/**
+ * Single edit made to a document: a region of the text before the edit that was replaced by new text.
+ */
+public class DocumentEdit {
+    /**
+     * Offset of the edit in the text before the edit.
+     */
+    public final int offset;
+    /**
+     * Length of the text that was removed at {@link #offset}.
+     */
+    public final int removedLength;
+    /**
+     * Text that was inserted at {@link #offset}.
+     */
+    public final String insertedText;
+
+
+    public DocumentEdit(int offset, int removedLength, String insertedText) {
+        this.offset = offset;
+        this.removedLength = removedLength;
+        this.insertedText = insertedText;
+    }
+
+    public DocumentEdit(DocumentEvent event) {
+        this(event.getOffset(), event.getLength(), event.getText() == null ? "" : event.getText());
+    }
+
+
+    /**
+     * @return Length of the inserted text.
+     */
+    public int insertedLength() {
+        return insertedText.length();
+    }
+
+    /**
+     * @return Difference in document length caused by this edit.
+     */
+    public int delta() {
+        return insertedText.length() - removedLength;
+    }
+
+    /**
+     * Maps given offset in the text before this edit, to an offset in the text after this edit. Offsets inside the
+     * removed region are mapped to the end of the inserted text.
+     *
+     * @param position
+     *            Offset in the text before this edit.
+     * @return Offset in the text after this edit.
+     */
+    public int shift(int position) {
+        if(position <= offset) {
+            return position;
+        }
+        if(position >= offset + removedLength) {
+            return position + delta();
+        }
+        return offset + insertedText.length();
+    }
+
+
+    /**
+     * Calculates the region in the final text that was damaged by given sequence of edits. Text outside of this region
+     * is equal to the text before the edits, shifted by the total length delta of the edits.
+     *
+     * @param edits
+     *            Sequence of edits, in the order in which they were applied.
+     * @return Damaged region in the text after all edits, or null if there are no edits.
+     */
+    public static @Nullable IRegion damage(Iterable<DocumentEdit> edits) {
+        int start = -1;
+        int end = -1;
+        for(DocumentEdit edit : edits) {
+            final int editEnd = edit.offset + edit.insertedLength();
+            if(start == -1) {
+                start = edit.offset;
+                end = editEnd;
+            } else {
+                end = Math.max(edit.shift(end), editEnd);
+                start = Math.min(start, edit.offset);
+            }
+        }
+        if(start == -1) {
+            return null;
+        }
+        return new Region(start, end - start);
+    }
+
+    /**
+     * Checks if applying given sequence of edits to the previous text results in the same text, by only comparing the
+     * damaged region. Runs in time proportional to the size of the edits, not the size of the text.
+     *
+     * @param previousText
+     *            Text before the edits.
+     * @param text
+     *            Text after the edits.
+     * @param edits
+     *            Sequence of edits that were applied to the previous text to get the text.
+     * @return True if the text is equal to the previous text, false otherwise.
+     */
+    public static boolean unchanged(String previousText, String text, Iterable<DocumentEdit> edits) {
+        if(previousText.length() != text.length()) {
+            return false;
+        }
+        final IRegion damage = damage(edits);
+        if(damage == null) {
+            return true;
+        }
+        // Lengths are equal, so the damaged region is located at the same offset in both texts.
+        return previousText.regionMatches(damage.getOffset(), text, damage.getOffset(), damage.getLength());
+    }
+
+
+    @Override public String toString() {
+        return "DocumentEdit[offset=" + offset + ", removed=" + removedLength + ", inserted=" + insertedLength() + "]";
+    }
+}
@@ -0,0 +1,183 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.IEditorInput;
+import org.metaborg.core.MetaborgException;
+import org.metaborg.core.analysis.AnalysisException;
+import org.metaborg.core.analysis.AnalyzeResult;
+import org.metaborg.core.analysis.IAnalysisService;
+import org.metaborg.core.analysis.IAnalyzeResult;
+import org.metaborg.core.analysis.IAnalyzeUnit;
+import org.metaborg.core.analysis.IAnalyzeUnitUpdate;
+import org.metaborg.core.context.IContext;
+import org.metaborg.core.context.IContextService;
+import org.metaborg.core.language.ILanguageImpl;
+import org.metaborg.core.messages.MessageType;
+import org.metaborg.core.processing.analyze.IAnalysisResultRequester;
+import org.metaborg.core.processing.analyze.IAnalysisResultUpdater;
+import org.metaborg.core.project.IProject;
+import org.metaborg.core.project.IProjectService;
+import org.metaborg.core.syntax.IInputUnit;
+import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.spoofax.eclipse.processing.Monitor;
+import org.metaborg.spoofax.eclipse.resource.IEclipseResourceService;
+import org.metaborg.spoofax.eclipse.util.MarkerLimiter;
+import org.metaborg.spoofax.eclipse.util.MarkerLimits;
+import org.metaborg.spoofax.eclipse.util.MarkerReconciler;
+import org.metaborg.spoofax.eclipse.util.MarkerUtils;
+import org.metaborg.spoofax.eclipse.util.StatusUtils;
+import org.metaborg.util.concurrent.IClosableLock;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Second stage of an editor update: analyzes the last successful parse of the editor and updates analysis messages.
+ * Requested by the {@link EditorUpdateJob} after parsing. Holds the project and Stratego locks, and may therefore wait
+ * for builds, without holding back styling and parse messages.
+ */
+public class EditorAnalysisJob<I extends IInputUnit, P extends IParseUnit, A extends IAnalyzeUnit, AU extends IAnalyzeUnitUpdate, F>
+    extends EditorStageJob<F> {
+    private static final ILogger logger = LoggerUtils.logger(EditorAnalysisJob.class);
+
+    private final IEclipseResourceService resourceService;
+    private final IContextService contextService;
+    private final IProjectService projectService;
+    private final IAnalysisService<P, A, AU> analyzer;
+    private final IAnalysisResultUpdater<P, A> analysisResultProcessor;
+    private final IAnalysisResultRequester<I, A> analysisResultRequester;
+    private final IEditorUpdateDelay updateDelay;
+
+    private final EditorParseState<P> parseState;
+
+
+    public EditorAnalysisJob(IEclipseResourceService resourceService, IContextService contextService,
+        IProjectService projectService, IAnalysisService<P, A, AU> analyzer,
+        IAnalysisResultUpdater<P, A> analysisResultProcessor, IAnalysisResultRequester<I, A> analysisResultRequester,
+        IEditorUpdateDelay updateDelay, IEditorUpdateTarget<F> target, IEditorInput input, IResource eclipseResource,
+        FileObject resource, EditorParseState<P> parseState, EditorUpdateScheduler scheduler) {
+        super("Analyzing Spoofax editor for " + resource.toString(), target, input, eclipseResource, resource,
+            scheduler);
+        setPriority(Job.SHORT);
+
+        this.resourceService = resourceService;
+        this.contextService = contextService;
+        this.projectService = projectService;
+        this.analyzer = analyzer;
+        this.analysisResultProcessor = analysisResultProcessor;
+        this.analysisResultRequester = analysisResultRequester;
+        this.updateDelay = updateDelay;
+
+        this.parseState = parseState;
+    }
+
+
+    @Override protected IStatus update(IWorkspace workspace, EditorUpdateRequest request,
+        final IProgressMonitor progressMonitor) throws MetaborgException, CoreException, InterruptedException,
+        ThreadDeath {
+        final SubMonitor monitor = SubMonitor.convert(progressMonitor, 55);
+        final Monitor spxMonitor = new Monitor(monitor);
+
+        // Only analyze the parse result of the requested text; if the text was parsed again in the meantime, a newer
+        // analysis request has been or will be scheduled.
+        final P parseResult = parseState.parsed(request.text);
+        if(parseResult == null || superseded()) {
+            logger.trace("Skipping analysis of {}, parse result is outdated", resource);
+            return StatusUtils.cancel();
+        }
+
+        if(spxMonitor.cancelled())
+            return StatusUtils.cancel();
+        spxMonitor.setDescription("Analyzing");
+
+        final ILanguageImpl langImpl = parseResult.input().langImpl();
+        final IProject project = projectService.get(resource);
+        final IContext context = contextService.get(resource, project, langImpl);
+        final IAnalyzeResult<A, AU> analysisResult;
+        final A result = analysisResultRequester.get(resource);
+        if(request.changed || result == null) {
+            analysisResult = analyze(parseResult, context, spxMonitor.subProgress(50));
+        } else {
+            analysisResult = new AnalyzeResult<>(result, context);
+        }
+
+        if(spxMonitor.cancelled() || outdated(request))
+            return StatusUtils.cancel();
+        spxMonitor.setDescription("Processing analysis messages");
+        analysisMessages(workspace, spxMonitor.subProgress(5), analysisResult);
+
+        return StatusUtils.success();
+    }
+
+
+    private IAnalyzeResult<A, AU> analyze(P parseResult, IContext context, Monitor monitor)
+        throws AnalysisException, InterruptedException, ThreadDeath {
+        final IAnalyzeResult<A, AU> analysisResult;
+        try(IClosableLock lock = context.write()) {
+            analysisResultProcessor.invalidate(parseResult.source());
+            try {
+                final long startNs = System.nanoTime();
+                analysisResult = analyzer.analyze(parseResult, context, monitor, monitor);
+                updateDelay.analyzed(resource, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+            } catch(AnalysisException e) {
+                analysisResultProcessor.error(resource, e);
+                throw e;
+            } catch(ThreadDeath e) {
+                analysisResultProcessor.error(resource, new AnalysisException(context, "Editor update job killed", e));
+                throw e;
+            }
+            analysisResultProcessor.update(analysisResult.result(), Sets.<FileName>newHashSet());
+        }
+        return analysisResult;
+    }
+
+    private void analysisMessages(IWorkspace workspace, Monitor monitor, final IAnalyzeResult<A, AU> analysisResult)
+        throws CoreException {
+        // Update markers atomically using a workspace runnable, to prevent flashing/jumping markers.
+        final IWorkspaceRunnable analysisMarkerUpdater = new IWorkspaceRunnable() {
+            @Override public void run(IProgressMonitor workspaceMonitor) throws CoreException {
+                if(workspaceMonitor.isCanceled())
+                    return;
+                MarkerUtils.clearInternal(eclipseResource);
+                final MarkerLimiter limiter = new MarkerLimiter(MarkerLimits.fromPreferences());
+                final MarkerReconciler.Result result = MarkerReconciler.reconcile(eclipseResource,
+                    MarkerUtils.type(MessageType.ANALYSIS), limiter.limit(analysisResult.result().messages()));
+                logger.trace("Reconciled analysis markers of {}; {}", eclipseResource, result);
+
+                for(AU update : analysisResult.updates()) {
+                    if(workspaceMonitor.isCanceled())
+                        return;
+                    final IResource messagesEclipseResource = resourceService.unresolve(update.source());
+                    if(messagesEclipseResource == null) {
+                        // In case the analysis sends an update for a resource that is not an eclipse resource; ignore.
+                        logger.debug("Cannot perform analysis update for resource {}, it is not an Eclipse resource",
+                            update.source());
+                        continue;
+                    }
+                    if(!messagesEclipseResource.exists()) {
+                        // In case the analysis sends an update for a resource that does not exist; ignore.
+                        logger.debug("Cannot perform analysis update for resource {}, since it does not exist",
+                            messagesEclipseResource);
+                        continue;
+                    }
+                    final MarkerReconciler.Result updateResult = MarkerReconciler.reconcile(messagesEclipseResource,
+                        MarkerUtils.type(MessageType.ANALYSIS), limiter.limit(update.messages()));
+                    logger.trace("Reconciled analysis markers of {}; {}", messagesEclipseResource, updateResult);
+                }
+            }
+        };
+        workspace.run(analysisMarkerUpdater, markerRule(workspace), IWorkspace.AVOID_UPDATE, monitor.eclipseMonitor());
+    }
+}
@@ -0,0 +1,209 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.vfs2.FileName;
+import org.apache.commons.vfs2.FileObject;
+import org.metaborg.core.language.ILanguageCache;
+import org.metaborg.core.language.ILanguageComponent;
+import org.metaborg.core.language.ILanguageImpl;
+import org.metaborg.core.language.LanguageIdentifier;
+import org.metaborg.core.outline.IOutline;
+import org.metaborg.core.style.IRegionStyle;
+import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Bounded cache of parse units, and the styling and outline derived from them, of editor texts. Entries are keyed by
+ * resource, a hash of the text, and the identifier (including the version) of the language and dialect, such that
+ * reopening an editor or switching between editors on an unchanged file does not parse the file again. Entries are
+ * evicted least recently used first when the estimated size of the cached ASTs exceeds a bound, and are invalidated
+ * when a language is reloaded. Can be used from any thread.
+ */
+public class EditorParseCache implements ILanguageCache {
+    private static final ILogger logger = LoggerUtils.logger(EditorParseCache.class);
+    /**
+     * Estimated number of bytes an AST takes up per character of text.
+     */
+    private static final int astBytesPerChar = 16;
+    /**
+     * Maximum estimated size of all cached ASTs, in kilobytes.
+     */
+    private static final long maxWeightKb = 128 * 1024;
+
+
+    /**
+     * Key of a cached parse, identifying the parsed text and the language it was parsed with.
+     */
+    public static class Key {
+        private final FileName resource;
+        private final HashCode textHash;
+        private final int textLength;
+        private final LanguageIdentifier language;
+        private final @Nullable LanguageIdentifier dialect;
+
+
+        private Key(FileName resource, HashCode textHash, int textLength, LanguageIdentifier language,
+            @Nullable LanguageIdentifier dialect) {
+            this.resource = resource;
+            this.textHash = textHash;
+            this.textLength = textLength;
+            this.language = language;
+            this.dialect = dialect;
+        }
+
+
+        @Override public int hashCode() {
+            return Objects.hashCode(resource, textHash, textLength, language, dialect);
+        }
+
+        @Override public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return textLength == other.textLength && resource.equals(other.resource)
+                && textHash.equals(other.textHash) && language.equals(other.language)
+                && Objects.equal(dialect, other.dialect);
+        }
+
+        @Override public String toString() {
+            return resource + "@" + textHash + " (" + language + ")";
+        }
+    }
+
+    /**
+     * Cached parse unit, with the styling, completion trigger offsets, and outline that were derived from it so far.
+     */
+    public static class Entry<P extends IParseUnit, F> {
+        public final P parseResult;
+        private volatile @Nullable List<IRegionStyle<F>> style;
+        private volatile @Nullable List<Integer> triggerOffsets;
+        private volatile @Nullable IOutline outline;
+        private volatile boolean outlined = false;
+
+
+        private Entry(P parseResult) {
+            this.parseResult = parseResult;
+        }
+
+
+        /**
+         * @return Cached styling, or null if the styling has not been cached yet.
+         */
+        public @Nullable List<IRegionStyle<F>> style() {
+            return style;
+        }
+
+        /**
+         * @return Completion trigger offsets, derived from the same categories as the styling, or null if the styling
+         *         has not been cached yet.
+         */
+        public @Nullable List<Integer> triggerOffsets() {
+            return triggerOffsets;
+        }
+
+        public void setStyle(Iterable<IRegionStyle<F>> style, Collection<Integer> triggerOffsets) {
+            this.triggerOffsets = Lists.newArrayList(triggerOffsets);
+            this.style = Lists.newArrayList(style);
+        }
+
+        /**
+         * @return True if the outline was cached, false if it must be created. The cached outline may be null.
+         */
+        public boolean outlined() {
+            return outlined;
+        }
+
+        public @Nullable IOutline outline() {
+            return outline;
+        }
+
+        public void setOutline(@Nullable IOutline outline) {
+            this.outline = outline;
+            this.outlined = true;
+        }
+    }
+
+
+    private final Cache<Key, Entry<?, ?>> entries =
+        CacheBuilder.newBuilder().maximumWeight(maxWeightKb).weigher(new Weigher<Key, Entry<?, ?>>() {
+            @Override public int weigh(Key key, Entry<?, ?> entry) {
+                return (int) Math.max(1, (long) key.textLength * astBytesPerChar / 1024);
+            }
+        }).recordStats().build();
+
+
+    /**
+     * @return Key for given text of given resource, parsed with given language and dialect.
+     */
+    public Key key(FileObject resource, String text, ILanguageImpl langImpl, @Nullable ILanguageImpl dialect) {
+        final HashCode textHash = Hashing.murmur3_128().hashString(text, Charsets.UTF_8);
+        return new Key(resource.getName(), textHash, text.length(), langImpl.id(), dialect != null ? dialect.id()
+            : null);
+    }
+
+    /**
+     * @return Cached entry for given key, or null if the text has not been parsed or its entry was evicted.
+     */
+    @SuppressWarnings("unchecked") public @Nullable <P extends IParseUnit, F> Entry<P, F> get(Key key) {
+        final Entry<P, F> entry = (Entry<P, F>) entries.getIfPresent(key);
+        final CacheStats stats = entries.stats();
+        logger.trace("Parse cache {} for {}; {} hit(s), {} miss(es), {} eviction(s)", entry != null ? "hit" : "miss",
+            key, stats.hitCount(), stats.missCount(), stats.evictionCount());
+        return entry;
+    }
+
+    /**
+     * Caches given parse unit under given key.
+     *
+     * @return Entry to which derived styling and outline can be added.
+     */
+    public <P extends IParseUnit, F> Entry<P, F> put(Key key, P parseResult) {
+        final Entry<P, F> entry = new Entry<>(parseResult);
+        entries.put(key, entry);
+        return entry;
+    }
+
+    /**
+     * @return Hit, miss, and eviction counts of this cache.
+     */
+    public CacheStats stats() {
+        return entries.stats();
+    }
+
+
+    @Override public void invalidateCache(ILanguageImpl impl) {
+        logger.debug("Removing cached editor parse results of {}", impl);
+        final LanguageIdentifier id = impl.id();
+        for(Iterator<Key> iter = entries.asMap().keySet().iterator(); iter.hasNext();) {
+            final Key key = iter.next();
+            if(id.equals(key.language) || id.equals(key.dialect)) {
+                iter.remove();
+            }
+        }
+    }
+
+    @Override public void invalidateCache(ILanguageComponent component) {
+        // Parse tables and styling can come from any component, remove all cached parse results.
+        logger.debug("Removing all cached editor parse results, {} changed", component);
+        entries.invalidateAll();
+    }
+}
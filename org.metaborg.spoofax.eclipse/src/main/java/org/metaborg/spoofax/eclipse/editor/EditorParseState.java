@@ -0,0 +1,147 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.List;
+
+import org.metaborg.core.language.ILanguageImpl;
+import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps track of the last successful parse of an editor, and the edits that were made to the document since that parse.
+ * Can be used from any thread.
+ */
+public class EditorParseState<P extends IParseUnit> {
+    /**
+     * Edits made to the document at a certain point in time.
+     */
+    public static class Edits {
+        /**
+         * Edits made to the document since the last successful parse, in the order in which they were made.
+         */
+        public final List<DocumentEdit> edits;
+        private final long generation;
+
+
+        private Edits(List<DocumentEdit> edits, long generation) {
+            this.edits = edits;
+            this.generation = generation;
+        }
+    }
+
+
+    private final List<DocumentEdit> edits = Lists.newArrayList();
+    private long generation = 0;
+    private @Nullable String parsedText;
+    private long parsedVersion = -1;
+    private @Nullable P parsed;
+
+
+    /**
+     * Records an edit made to the document.
+     */
+    public synchronized void edited(DocumentEdit edit) {
+        edits.add(edit);
+    }
+
+    /**
+     * @return Edits made to the document since the last successful parse.
+     */
+    public synchronized Edits edits() {
+        return new Edits(ImmutableList.copyOf(edits), generation);
+    }
+
+    /**
+     * Returns the parse unit of the last successful parse, if it can be reused for given text. A parse unit can be
+     * reused if it was parsed with the same language and dialect, and if the given edits cancel each other out.
+     *
+     * @param text
+     *            Current text of the document.
+     * @param textEdits
+     *            Edits made since the last successful parse, as returned by {@link #edits()}.
+     * @param langImpl
+     *            Language implementation the text will be parsed with.
+     * @param dialect
+     *            Dialect the text will be parsed with, or null if there is no dialect.
+     * @return Reusable parse unit, or null if the text must be parsed.
+     */
+    public synchronized @Nullable P reusable(String text, Edits textEdits, ILanguageImpl langImpl,
+        @Nullable ILanguageImpl dialect) {
+        if(parsed == null || parsedText == null || textEdits.generation != generation) {
+            return null;
+        }
+        if(!langImpl.equals(parsed.input().langImpl()) || !Objects.equal(dialect, parsed.input().dialect())) {
+            return null;
+        }
+        if(!DocumentEdit.unchanged(parsedText, text, textEdits.edits)) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the parse unit of the last successful parse, if it was parsed from given text.
+     *
+     * @param text
+     *            Text to get the parse unit for.
+     * @return Parse unit, or null if the last successful parse was not of given text.
+     */
+    public synchronized @Nullable P parsed(String text) {
+        if(parsed == null || parsedText == null || !parsedText.equals(text)) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the parse unit of the last successful parse, if it was parsed from given version of the document.
+     *
+     * @param documentVersion
+     *            Version of the document to get the parse unit for.
+     * @return Parse unit, or null if the last successful parse was not of given document version.
+     */
+    public synchronized @Nullable P parsedAt(long documentVersion) {
+        if(parsedVersion != documentVersion) {
+            return null;
+        }
+        return parsed;
+    }
+
+    /**
+     * Marks given text as successfully parsed, removing the edits that were included in that text. Does nothing if the
+     * state was reset after the edits were retrieved.
+     *
+     * @param text
+     *            Text that was parsed.
+     * @param documentVersion
+     *            Version of the document the text was taken from.
+     * @param textEdits
+     *            Edits included in the parsed text, as returned by {@link #edits()}.
+     * @param parseUnit
+     *            Resulting parse unit.
+     */
+    public synchronized void parsed(String text, long documentVersion, Edits textEdits, P parseUnit) {
+        if(textEdits.generation != generation) {
+            return;
+        }
+        // Edits are only appended, so the edits included in the parsed text are always a prefix.
+        edits.subList(0, Math.min(textEdits.edits.size(), edits.size())).clear();
+        parsedText = text;
+        parsedVersion = documentVersion;
+        parsed = parseUnit;
+    }
+
+    /**
+     * Forgets the last successful parse and all recorded edits, forcing a full parse on the next update.
+     */
+    public synchronized void reset() {
+        ++generation;
+        edits.clear();
+        parsedText = null;
+        parsedVersion = -1;
+        parsed = null;
+    }
+}
@@ -12,12 +12,20 @@ public class EditorPreferences {
     public static final String bracketMatchingHighlightAtCaret = bracketMatching + ".highlight-at-caret";
     public static final String bracketMatchingHighlightPeers = bracketMatching + ".highlight-peers";
 
+    private static final String completion = id + ".completion";
+    /**
+     * Time in milliseconds that content assist waits for proposals, before showing the popup and continuing to compute
+     * proposals in the background.
+     */
+    public static final String completionTimeBudget = completion + ".time-budget";
+
 
     public static void setDefaults(IPreferenceStore store) {
         store.setDefault(bracketMatchingEnabled, true);
         store.setDefault(bracketMatchingColor, "128, 128, 128");
         store.setDefault(bracketMatchingHighlightAtCaret, true);
         store.setDefault(bracketMatchingHighlightPeers, false);
+        store.setDefault(completionTimeBudget, 200);
     }
 
 
@@ -0,0 +1,179 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.concurrent.CancellationException;
+
+import org.apache.commons.vfs2.FileObject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.ui.IEditorInput;
+import org.metaborg.core.MetaborgException;
+import org.metaborg.core.MetaborgRuntimeException;
+import org.metaborg.core.messages.MessageFactory;
+import org.metaborg.core.messages.MessageType;
+import org.metaborg.spoofax.eclipse.job.ThreadKillerJob;
+import org.metaborg.spoofax.eclipse.util.MarkerUtils;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.spoofax.eclipse.util.StatusUtils;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+/**
+ * Worker job for one stage of an editor update. Takes the latest request from its {@link EditorUpdateScheduler} when it
+ * runs, and handles errors and explicit cancellation the same way for all stages.
+ */
+public abstract class EditorStageJob<F> extends Job {
+    private static final ILogger logger = LoggerUtils.logger(EditorStageJob.class);
+    private static final long interruptTimeMillis = 5000;
+    private static final long killTimeMillis = 10000;
+
+    protected final IEditorUpdateTarget<F> target;
+    protected final IEditorInput input;
+    protected final @Nullable IResource eclipseResource;
+    protected final FileObject resource;
+    protected final EditorUpdateScheduler scheduler;
+
+    private ThreadKillerJob threadKiller;
+
+
+    public EditorStageJob(String name, IEditorUpdateTarget<F> target, IEditorInput input,
+        @Nullable IResource eclipseResource, FileObject resource, EditorUpdateScheduler scheduler) {
+        super(name);
+
+        this.target = target;
+        this.input = input;
+        this.eclipseResource = eclipseResource;
+        this.resource = resource;
+        this.scheduler = scheduler;
+    }
+
+
+    @Override public boolean belongsTo(Object family) {
+        return input.equals(family) || target.equals(family);
+    }
+
+    @Override protected IStatus run(final IProgressMonitor monitor) {
+        final EditorUpdateRequest request = scheduler.take();
+        if(request == null) {
+            return StatusUtils.success();
+        }
+
+        logger.debug("Running {}", getName());
+
+        final IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+        try {
+            final IStatus status = update(workspace, request, monitor);
+            return status;
+        } catch(MetaborgRuntimeException | MetaborgException | CoreException e) {
+            if(monitor.isCanceled()) {
+                return StatusUtils.cancel();
+            }
+
+            if(eclipseResource != null) {
+                try {
+                    final IWorkspaceRunnable parseMarkerUpdater = new IWorkspaceRunnable() {
+                        @Override public void run(IProgressMonitor workspaceMonitor) throws CoreException {
+                            if(workspaceMonitor.isCanceled())
+                                return;
+                            MarkerUtils.clearAll(eclipseResource);
+                            MarkerUtils.createMarker(eclipseResource,
+                                MessageFactory.newErrorAtTop(resource,
+                                    "Failed to update editor; see the console or error log for more information",
+                                    MessageType.INTERNAL, e));
+                        }
+                    };
+                    workspace.run(parseMarkerUpdater, markerRule(workspace), IWorkspace.AVOID_UPDATE, monitor);
+                } catch(CoreException e2) {
+                    final String message = logger.format("Failed to show internal error marker for {}", resource);
+                    logger.error(message, e2);
+                    return StatusUtils.silentError(message, e2);
+                }
+            }
+
+            final String message = logger.format("Failed to update editor for {}", resource);
+            logger.error(message, e);
+            return StatusUtils.silentError(message, e);
+        } catch(InterruptedException | CancellationException | ThreadDeath e) {
+            return StatusUtils.cancel();
+        } catch(OperationCanceledException e) {
+            return StatusUtils.cancel();
+        } catch(Throwable e) {
+            final String message = logger.format("Failed to update editor for {}", resource);
+            logger.error(message, e);
+            return StatusUtils.silentError(message, e);
+        } finally {
+            if(threadKiller != null) {
+                threadKiller.cancel();
+                threadKiller = null;
+            }
+            monitor.done();
+        }
+    }
+
+    @Override protected void canceling() {
+        final Thread thread = getThread();
+        if(thread == null) {
+            return;
+        }
+
+        logger.debug("Cancelling {}, interrupting in {}ms, killing in {}ms", getName(), interruptTimeMillis,
+            interruptTimeMillis + killTimeMillis);
+        threadKiller = new ThreadKillerJob(thread, killTimeMillis);
+        threadKiller.schedule(interruptTimeMillis);
+    }
+
+
+    /**
+     * Handles given request.
+     */
+    protected abstract IStatus update(IWorkspace workspace, EditorUpdateRequest request, IProgressMonitor monitor)
+        throws MetaborgException, CoreException, InterruptedException, ThreadDeath;
+
+
+    /**
+     * @return Scheduling rule for updating markers of the Eclipse resource. Marker updates must not use the resource
+     *         itself as rule, since stages do not hold that rule, to prevent waiting for builds.
+     */
+    protected ISchedulingRule markerRule(IWorkspace workspace) {
+        return workspace.getRuleFactory().markerRule(eclipseResource);
+    }
+
+    /**
+     * @return True if the document changed since given request was made, meaning that its results are outdated.
+     */
+    protected boolean outdated(EditorUpdateRequest request) {
+        return target.documentVersion() != request.documentVersion;
+    }
+
+    /**
+     * @return True if the request being handled is outdated, recording it as superseded.
+     */
+    protected boolean superseded() {
+        if(scheduler.superseded()) {
+            scheduler.recordSuperseded();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Waits for given time, or until the request being handled is outdated.
+     *
+     * @return True if the request being handled is outdated, recording it as superseded.
+     */
+    protected boolean awaitSuperseded(long timeMs) throws InterruptedException {
+        if(scheduler.awaitSuperseded(timeMs)) {
+            scheduler.recordSuperseded();
+            return true;
+        }
+        return false;
+    }
+}
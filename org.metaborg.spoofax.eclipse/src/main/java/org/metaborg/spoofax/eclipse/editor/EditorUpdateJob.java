@@ -1,40 +1,32 @@
 package org.metaborg.spoofax.eclipse.editor;
 
-import java.util.concurrent.CancellationException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.IWorkspaceRunnable;
-import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.IJobManager;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.ui.IEditorInput;
 import org.metaborg.core.MetaborgException;
-import org.metaborg.core.MetaborgRuntimeException;
-import org.metaborg.core.analysis.AnalysisException;
-import org.metaborg.core.analysis.AnalyzeResult;
 import org.metaborg.core.analysis.IAnalysisService;
-import org.metaborg.core.analysis.IAnalyzeResult;
 import org.metaborg.core.analysis.IAnalyzeUnit;
 import org.metaborg.core.analysis.IAnalyzeUnitUpdate;
-import org.metaborg.core.context.IContext;
 import org.metaborg.core.context.IContextService;
 import org.metaborg.core.language.ILanguageIdentifierService;
 import org.metaborg.core.language.ILanguageImpl;
 import org.metaborg.core.language.IdentifiedResource;
-import org.metaborg.core.messages.IMessage;
-import org.metaborg.core.messages.MessageFactory;
 import org.metaborg.core.messages.MessageType;
 import org.metaborg.core.outline.IOutline;
 import org.metaborg.core.outline.IOutlineService;
-import org.metaborg.core.processing.analyze.IAnalysisResultRequester;
-import org.metaborg.core.processing.analyze.IAnalysisResultUpdater;
 import org.metaborg.core.processing.parse.IParseResultUpdater;
 import org.metaborg.core.project.IProject;
 import org.metaborg.core.project.IProjectService;
@@ -48,25 +40,29 @@ import org.metaborg.core.syntax.ISyntaxService;
 import org.metaborg.core.syntax.ParseException;
 import org.metaborg.core.unit.IInputUnitService;
 import org.metaborg.spoofax.core.style.CategorizerValidator;
-import org.metaborg.spoofax.eclipse.job.ThreadKillerJob;
+import org.metaborg.spoofax.eclipse.editor.completion.CompletionPrefetcher;
 import org.metaborg.spoofax.eclipse.processing.Monitor;
-import org.metaborg.spoofax.eclipse.resource.IEclipseResourceService;
+import org.metaborg.spoofax.eclipse.util.MarkerLimiter;
+import org.metaborg.spoofax.eclipse.util.MarkerLimits;
+import org.metaborg.spoofax.eclipse.util.MarkerReconciler;
 import org.metaborg.spoofax.eclipse.util.MarkerUtils;
 import org.metaborg.spoofax.eclipse.util.Nullable;
 import org.metaborg.spoofax.eclipse.util.StatusUtils;
-import org.metaborg.util.concurrent.IClosableLock;
 import org.metaborg.util.log.ILogger;
 import org.metaborg.util.log.LoggerUtils;
 
-import com.google.common.collect.Sets;
-
+/**
+ * First stage of an editor update: parses the text of the editor, updates styling, outline, and parse messages, and
+ * requests analysis from the {@link EditorAnalysisJob} when parsing succeeds. Never holds the project rule, such that
+ * styling continues while the workspace is being built. The job is scheduled without a rule; it waits for the startup
+ * read lock before parsing, and only takes the Stratego lock while creating the outline, since outline strategies must
+ * not run concurrently with analysis and builds. Nested rules must be contained in the rule of a job, which is why
+ * neither lock is the rule of the job itself.
+ */
 public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A extends IAnalyzeUnit, AU extends IAnalyzeUnitUpdate, F>
-    extends Job {
+    extends EditorStageJob<F> {
     private static final ILogger logger = LoggerUtils.logger(EditorUpdateJob.class);
-    private static final long interruptTimeMillis = 5000;
-    private static final long killTimeMillis = 10000;
 
-    private final IEclipseResourceService resourceService;
     private final ILanguageIdentifierService languageIdentifierService;
     private final IContextService contextService;
     private final IProjectService projectService;
@@ -77,35 +73,30 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
     private final IStylerService<F> styler;
     private final IOutlineService<P, A> outlineService;
     private final IParseResultUpdater<P> parseResultProcessor;
-    private final IAnalysisResultUpdater<P, A> analysisResultProcessor;
-    private final IAnalysisResultRequester<I, A> analysisResultRequester;
-
-    private final IEclipseEditor<F> editor;
-    private final IEditorInput input;
-    private final @Nullable IResource eclipseResource;
-    private final FileObject resource;
-    private final String text;
-    private final boolean changed;
-    private final boolean instantaneous;
-    private final long analysisDelayMs;
-    private final boolean analysis;
+    private final IEditorUpdateDelay updateDelay;
+    private final EditorParseCache parseCache;
+    private final PersistentEditorCache persistentCache;
+    private final @Nullable CompletionPrefetcher<P, F> completionPrefetcher;
 
-    private ThreadKillerJob threadKiller;
+    private final EditorParseState<P> parseState;
+    private final @Nullable EditorUpdateScheduler analysisScheduler;
+    private final ISchedulingRule startupRule;
+    private final ISchedulingRule strategoRule;
 
 
-    public EditorUpdateJob(IEclipseResourceService resourceService,
-        ILanguageIdentifierService languageIdentifierService, IContextService contextService,
+    public EditorUpdateJob(ILanguageIdentifierService languageIdentifierService, IContextService contextService,
         IProjectService projectService, IInputUnitService<I> unitService, ISyntaxService<I, P> syntaxService,
         IAnalysisService<P, A, AU> analyzer, ICategorizerService<P, A, F> categorizer, IStylerService<F> styler,
         IOutlineService<P, A> outlineService, IParseResultUpdater<P> parseResultProcessor,
-        IAnalysisResultUpdater<P, A> analysisResultProcessor, IAnalysisResultRequester<I, A> analysisResultRequester,
-        IEclipseEditor<F> editor, IEditorInput input, @Nullable IResource eclipseResource, FileObject resource,
-        String text, boolean changed, boolean instantaneous,
-        long analysisDelayMs, boolean analysis) {
-        super("Updating Spoofax editor for " + resource.toString());
+        IEditorUpdateDelay updateDelay, EditorParseCache parseCache, PersistentEditorCache persistentCache,
+        @Nullable CompletionPrefetcher<P, F> completionPrefetcher, IEditorUpdateTarget<F> target, IEditorInput input,
+        @Nullable IResource eclipseResource, FileObject resource, EditorParseState<P> parseState,
+        EditorUpdateScheduler scheduler, @Nullable EditorUpdateScheduler analysisScheduler,
+        ISchedulingRule startupRule, ISchedulingRule strategoRule) {
+        super("Updating Spoofax editor for " + resource.toString(), target, input, eclipseResource, resource,
+            scheduler);
         setPriority(Job.SHORT);
 
-        this.resourceService = resourceService;
         this.languageIdentifierService = languageIdentifierService;
         this.contextService = contextService;
         this.projectService = projectService;
@@ -116,95 +107,35 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
         this.styler = styler;
         this.outlineService = outlineService;
         this.parseResultProcessor = parseResultProcessor;
-        this.analysisResultProcessor = analysisResultProcessor;
-        this.analysisResultRequester = analysisResultRequester;
-
-        this.editor = editor;
-        this.input = input;
-        this.eclipseResource = eclipseResource;
-        this.resource = resource;
-        this.text = text;
-        this.changed = changed;
-        this.instantaneous = instantaneous;
-        this.analysisDelayMs = analysisDelayMs;
-        this.analysis = analysis;
+        this.updateDelay = updateDelay;
+        this.parseCache = parseCache;
+        this.persistentCache = persistentCache;
+        this.completionPrefetcher = completionPrefetcher;
+
+        this.parseState = parseState;
+        this.analysisScheduler = analysisScheduler;
+        this.startupRule = startupRule;
+        this.strategoRule = strategoRule;
     }
 
 
-    @Override public boolean belongsTo(Object family) {
-        return input.equals(family) || editor.equals(family);
-    }
-
-    @Override protected IStatus run(final IProgressMonitor monitor) {
-        logger.debug("Running editor update job for {}", resource);
+    @Override protected IStatus update(IWorkspace workspace, EditorUpdateRequest request,
+        final IProgressMonitor progressMonitor) throws MetaborgException, CoreException, InterruptedException,
+        ThreadDeath {
+        final String text = request.text;
+        final EditorParseState.Edits edits = request.edits;
 
-        final IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        final SubMonitor monitor = SubMonitor.convert(progressMonitor, 45);
+        final Monitor spxMonitor = new Monitor(monitor);
 
+        // Wait until the languages in the workspace have been loaded at startup; the startup lock never blocks after.
+        spxMonitor.setDescription("Waiting for startup");
+        final IJobManager jobManager = Job.getJobManager();
         try {
-            final IStatus status = update(workspace, monitor);
-            return status;
-        } catch(MetaborgRuntimeException | MetaborgException | CoreException e) {
-            if(monitor.isCanceled()) {
-                return StatusUtils.cancel();
-            }
-
-            if(eclipseResource != null) {
-                try {
-                    final IWorkspaceRunnable parseMarkerUpdater = new IWorkspaceRunnable() {
-                        @Override public void run(IProgressMonitor workspaceMonitor) throws CoreException {
-                            if(workspaceMonitor.isCanceled())
-                                return;
-                            MarkerUtils.clearAll(eclipseResource);
-                            MarkerUtils.createMarker(eclipseResource,
-                                MessageFactory.newErrorAtTop(resource,
-                                    "Failed to update editor; see the console or error log for more information",
-                                    MessageType.INTERNAL, e));
-                        }
-                    };
-                    workspace.run(parseMarkerUpdater, eclipseResource, IWorkspace.AVOID_UPDATE, monitor);
-                } catch(CoreException e2) {
-                    final String message = logger.format("Failed to show internal error marker for {}", resource);
-                    logger.error(message, e2);
-                    return StatusUtils.silentError(message, e2);
-                }
-            }
-
-            final String message = logger.format("Failed to update editor for {}", resource);
-            logger.error(message, e);
-            return StatusUtils.silentError(message, e);
-        } catch(InterruptedException | CancellationException | ThreadDeath e) {
-            return StatusUtils.cancel();
-        } catch(OperationCanceledException e) {
-            return StatusUtils.cancel();
-        } catch(Throwable e) {
-            final String message = logger.format("Failed to update editor for {}", resource);
-            logger.error(message, e);
-            return StatusUtils.silentError(message, e);
+            jobManager.beginRule(startupRule, monitor);
         } finally {
-            if(threadKiller != null) {
-                threadKiller.cancel();
-            }
-            monitor.done();
+            jobManager.endRule(startupRule);
         }
-    }
-
-    @Override protected void canceling() {
-        final Thread thread = getThread();
-        if(thread == null) {
-            return;
-        }
-
-        logger.debug("Cancelling editor update job for {}, interrupting in {}ms, killing in {}ms", resource,
-            interruptTimeMillis, interruptTimeMillis + killTimeMillis);
-        threadKiller = new ThreadKillerJob(thread, killTimeMillis);
-        threadKiller.schedule(interruptTimeMillis);
-    }
-
-
-    private IStatus update(IWorkspace workspace, final IProgressMonitor progressMonitor)
-        throws MetaborgException, CoreException, InterruptedException, ThreadDeath {
-        final SubMonitor monitor = SubMonitor.convert(progressMonitor, 95);
-        final Monitor spxMonitor = new Monitor(monitor);
 
         spxMonitor.setDescription("Identifying language");
         final IProject project = projectService.get(resource);
@@ -218,21 +149,67 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
         if(spxMonitor.cancelled())
             return StatusUtils.cancel();
         spxMonitor.setDescription("Parsing");
-        final I inputUnit = unitService.inputUnit(resource, text, langImpl, identified.dialect);
-        final P parseResult = parse(inputUnit, spxMonitor.subProgress(20));
+        final P parseResult;
+        EditorParseCache.Entry<P, F> cached = null;
+        final P reusableParseResult = parseState.reusable(text, edits, langImpl, identified.dialect);
+        if(reusableParseResult != null) {
+            logger.trace("Reusing previous parse result for {}, {} edit(s) did not change the text", resource,
+                edits.edits.size());
+            parseResultProcessor.invalidate(resource);
+            parseResultProcessor.update(resource, reusableParseResult);
+            parseResult = reusableParseResult;
+            spxMonitor.work(20);
+        } else {
+            final EditorParseCache.Key key = parseCache.key(resource, text, langImpl, identified.dialect);
+            cached = parseCache.get(key);
+            if(cached != null) {
+                logger.trace("Reusing cached parse result for {}", resource);
+                parseResultProcessor.invalidate(resource);
+                parseResultProcessor.update(resource, cached.parseResult);
+                parseResult = cached.parseResult;
+                spxMonitor.work(20);
+            } else {
+                if(request.instantaneous) {
+                    // Show the styling of a previous session while parsing, such as when opening an editor.
+                    final List<IRegionStyle<F>> persistedStyles =
+                        persistentCache.styles(text, langImpl, identified.dialect);
+                    if(persistedStyles != null) {
+                        logger.trace("Styling {} with styling cached on disk while parsing", resource);
+                        target.setStyle(persistedStyles, text, request.documentVersion, monitor);
+                    }
+                }
+                final I inputUnit = unitService.inputUnit(resource, text, langImpl, identified.dialect);
+                parseResult = parse(inputUnit, spxMonitor.subProgress(20));
+                cached = parseCache.put(key, parseResult);
+            }
+        }
+        if(parseResult.valid()) {
+            parseState.parsed(text, request.documentVersion, edits, parseResult);
+        }
+
+        // Newer text came in while parsing; styling, outline, and messages would be outdated right away.
+        if(superseded()) {
+            return StatusUtils.cancel();
+        }
 
         if(parseResult.valid()) {
             if(spxMonitor.cancelled())
                 return StatusUtils.cancel();
             spxMonitor.setDescription("Styling");
-            style(monitor, langImpl, parseResult);
+            final Collection<Integer> triggerOffsets = style(monitor, langImpl, identified.dialect, parseResult,
+                cached, text, request.documentVersion, request.instantaneous);
             spxMonitor.work(5);
 
             if(spxMonitor.cancelled())
                 return StatusUtils.cancel();
             spxMonitor.setDescription("Creating outline");
-            outline(monitor, langImpl, parseResult);
+            outline(monitor, langImpl, parseResult, cached, request.documentVersion);
             spxMonitor.work(5);
+
+            if(completionPrefetcher != null) {
+                completionPrefetcher.prefetch(parseResult, triggerOffsets, request.documentVersion,
+                    request.caretOffset);
+            }
         } else {
             spxMonitor.work(10);
         }
@@ -243,59 +220,32 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
             return StatusUtils.success();
         }
 
-        // Sleep before showing parse messages to prevent showing irrelevant messages while user is still typing.
-        if(!instantaneous) {
-            try {
-                spxMonitor.setDescription("Waiting");
-                Thread.sleep(300);
-            } catch(InterruptedException e) {
+        // Request analysis right away, the analysis stage waits for its own delay while parse messages are processed.
+        // Skip if newer text came in, analysis for that text is requested after parsing it.
+        final boolean analyze = analysisScheduler != null && parseResult.valid() && request.analysis
+            && contextService.available(langImpl) && analyzer.available(langImpl) && !scheduler.superseded();
+        if(analyze) {
+            analysisScheduler.schedule(request, request.instantaneous ? 0 : request.analysisDelayMs);
+        }
+
+        // Wait before showing parse messages to prevent showing irrelevant messages while user is still typing.
+        if(!request.instantaneous) {
+            spxMonitor.setDescription("Waiting");
+            if(awaitSuperseded(request.parseMessagesDelayMs)) {
                 return StatusUtils.cancel();
             }
         }
 
-        if(spxMonitor.cancelled())
+        if(spxMonitor.cancelled() || outdated(request))
             return StatusUtils.cancel();
         spxMonitor.setDescription("Processing parse messages");
         parseMessages(workspace, spxMonitor.subProgress(5), parseResult);
 
         // Stop if parsing produced an invalid result, or if analysis is disabled.
-        if(!parseResult.valid() || !analysis) {
+        if(!parseResult.valid() || !request.analysis) {
             return StatusUtils.silentError();
         }
 
-        // Stop if context or analysis is unavailable.
-        if(!contextService.available(langImpl) || !analyzer.available(langImpl)) {
-            return StatusUtils.success();
-        }
-
-        // Sleep before analyzing to prevent running many analyses when small edits are made in succession.
-        if(!instantaneous) {
-            try {
-                spxMonitor.setDescription("Waiting");
-                Thread.sleep(analysisDelayMs);
-            } catch(InterruptedException e) {
-                return StatusUtils.cancel();
-            }
-        }
-
-        if(spxMonitor.cancelled())
-            return StatusUtils.cancel();
-        spxMonitor.setDescription("Analyzing");
-        
-        final IContext context = contextService.get(resource, project, langImpl);
-        final IAnalyzeResult<A, AU> analysisResult ;
-        final A result = analysisResultRequester.get(resource);
-        if(changed || result == null) {
-            analysisResult = analyze(parseResult, context, spxMonitor.subProgress(50));
-        } else {
-            analysisResult = new AnalyzeResult<>(result, context);
-        }
-        
-        if(spxMonitor.cancelled())
-            return StatusUtils.cancel();
-        spxMonitor.setDescription("Processing analysis messages");
-        analysisMessages(workspace, spxMonitor.subProgress(5), analysisResult);
-
         return StatusUtils.success();
     }
 
@@ -304,7 +254,9 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
         final P parseResult;
         try {
             parseResultProcessor.invalidate(resource);
+            final long startNs = System.nanoTime();
             parseResult = syntaxService.parse(input, monitor, monitor);
+            updateDelay.parsed(resource, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
             parseResultProcessor.update(resource, parseResult);
         } catch(ParseException e) {
             parseResultProcessor.error(resource, e);
@@ -316,25 +268,61 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
         return parseResult;
     }
 
-    private void style(final IProgressMonitor monitor, ILanguageImpl language, P parseResult) {
-        final Iterable<IRegionCategory<F>> categories =
-            CategorizerValidator.validate(categorizer.categorize(language, parseResult));
-        final Iterable<IRegionStyle<F>> styles = styler.styleParsed(language, categories);
-        editor.setStyle(styles, text, monitor);
+    /**
+     * Styles given parse result, or takes the styling from given cache entry, and shows it.
+     *
+     * @return Offsets at which completion is likely to be requested, derived from the categories used for styling.
+     */
+    private Collection<Integer> style(final IProgressMonitor monitor, ILanguageImpl language,
+        @Nullable ILanguageImpl dialect, P parseResult, @Nullable EditorParseCache.Entry<P, F> cached, String text,
+        long documentVersion, boolean persist) {
+        Iterable<IRegionStyle<F>> styles = cached != null ? cached.style() : null;
+        Collection<Integer> triggerOffsets = cached != null ? cached.triggerOffsets() : null;
+        if(styles == null || triggerOffsets == null) {
+            final Iterable<IRegionCategory<F>> categories =
+                CategorizerValidator.validate(categorizer.categorize(language, parseResult));
+            styles = styler.styleParsed(language, categories);
+            triggerOffsets = CompletionPrefetcher.triggerOffsets(categories);
+            if(cached != null) {
+                cached.setStyle(styles, triggerOffsets);
+                styles = cached.style();
+            }
+        }
+        // Only persist styling of texts that editors are opened with, not of every edit.
+        if(persist) {
+            persistentCache.put(text, language, dialect, styles);
+        }
+        target.setStyle(styles, text, documentVersion, monitor);
+        return triggerOffsets;
     }
 
-    private void outline(final IProgressMonitor monitor, ILanguageImpl language, P parseResult)
-        throws MetaborgException {
+    private void outline(final IProgressMonitor monitor, ILanguageImpl language, P parseResult,
+        @Nullable EditorParseCache.Entry<P, F> cached, long documentVersion) throws MetaborgException {
         if(!outlineService.available(language)) {
             return;
         }
 
-        final IOutline outline = outlineService.outline(parseResult);
+        final IOutline outline;
+        if(cached != null && cached.outlined()) {
+            outline = cached.outline();
+        } else {
+            // Outline strategies are Stratego code, hold the Stratego lock only while running them.
+            final IJobManager jobManager = Job.getJobManager();
+            try {
+                jobManager.beginRule(strategoRule, monitor);
+                outline = outlineService.outline(parseResult);
+            } finally {
+                jobManager.endRule(strategoRule);
+            }
+            if(cached != null) {
+                cached.setOutline(outline);
+            }
+        }
         if(outline == null) {
             return;
         }
 
-        editor.setOutline(outline, monitor);
+        target.setOutline(outline, documentVersion, monitor);
     }
 
     private void parseMessages(IWorkspace workspace, Monitor monitor, final P parseResult) throws CoreException {
@@ -344,74 +332,12 @@ public class EditorUpdateJob<I extends IInputUnit, P extends IParseUnit, A exten
                 if(workspaceMonitor.isCanceled())
                     return;
                 MarkerUtils.clearInternal(eclipseResource);
-                MarkerUtils.clearParser(eclipseResource);
-                for(IMessage message : parseResult.messages()) {
-                    MarkerUtils.createMarker(eclipseResource, message);
-                }
-            }
-        };
-        workspace.run(parseMarkerUpdater, eclipseResource, IWorkspace.AVOID_UPDATE, monitor.eclipseMonitor());
-    }
-
-    private IAnalyzeResult<A, AU> analyze(P parseResult, IContext context, Monitor monitor)
-        throws AnalysisException, InterruptedException, ThreadDeath {
-        final IAnalyzeResult<A, AU> analysisResult;
-        try(IClosableLock lock = context.write()) {
-            analysisResultProcessor.invalidate(parseResult.source());
-            try {
-                analysisResult = analyzer.analyze(parseResult, context, monitor, monitor);
-            } catch(AnalysisException e) {
-                analysisResultProcessor.error(resource, e);
-                throw e;
-            } catch(ThreadDeath e) {
-                analysisResultProcessor.error(resource, new AnalysisException(context, "Editor update job killed", e));
-                throw e;
-            }
-            analysisResultProcessor.update(analysisResult.result(), Sets.<FileName>newHashSet());
-        }
-        return analysisResult;
-    }
-
-    private void analysisMessages(IWorkspace workspace, Monitor monitor, final IAnalyzeResult<A, AU> analysisResult)
-        throws CoreException {
-        // Update markers atomically using a workspace runnable, to prevent flashing/jumping markers.
-        final IWorkspaceRunnable analysisMarkerUpdater = new IWorkspaceRunnable() {
-            @Override public void run(IProgressMonitor workspaceMonitor) throws CoreException {
-                if(workspaceMonitor.isCanceled())
-                    return;
-                MarkerUtils.clearInternal(eclipseResource);
-                MarkerUtils.clearAnalysis(eclipseResource);
-                for(IMessage message : analysisResult.result().messages()) {
-                    if(workspaceMonitor.isCanceled())
-                        return;
-                    MarkerUtils.createMarker(eclipseResource, message);
-                }
-
-                for(AU result : analysisResult.updates()) {
-                    if(workspaceMonitor.isCanceled())
-                        return;
-                    final IResource messagesEclipseResource = resourceService.unresolve(result.source());
-                    if(messagesEclipseResource == null) {
-                        // In case the analysis sends an update for a resource that is not an eclipse resource; ignore.
-                        logger.debug("Cannot perform analysis update for resource {}, it is not an Eclipse resource",
-                            result.source());
-                        continue;
-                    }
-                    if(!messagesEclipseResource.exists()) {
-                        // In case the analysis sends an update for a resource that does not exist; ignore.
-                        logger.debug("Cannot perform analysis update for resource {}, since it does not exist",
-                            messagesEclipseResource);
-                        continue;
-                    }
-                    MarkerUtils.clearAnalysis(messagesEclipseResource);
-                    for(IMessage message : result.messages()) {
-                        if(workspaceMonitor.isCanceled())
-                            return;
-                        MarkerUtils.createMarker(messagesEclipseResource, message);
-                    }
-                }
+                final MarkerLimiter limiter = new MarkerLimiter(MarkerLimits.fromPreferences());
+                final MarkerReconciler.Result result = MarkerReconciler.reconcile(eclipseResource,
+                    MarkerUtils.type(MessageType.PARSER), limiter.limit(parseResult.messages()));
+                logger.trace("Reconciled parse markers of {}; {}", eclipseResource, result);
             }
         };
-        workspace.run(analysisMarkerUpdater, eclipseResource, IWorkspace.AVOID_UPDATE, monitor.eclipseMonitor());
+        workspace.run(parseMarkerUpdater, markerRule(workspace), IWorkspace.AVOID_UPDATE, monitor.eclipseMonitor());
     }
 }
@@ -0,0 +1,281 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.vfs2.FileObject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.source.ISourceViewer;
+import org.eclipse.swt.widgets.Display;
+import org.metaborg.core.outline.IOutline;
+import org.metaborg.core.processing.analyze.IAnalysisResultUpdater;
+import org.metaborg.core.processing.parse.IParseResultUpdater;
+import org.metaborg.core.style.IRegionStyle;
+import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.spoofax.eclipse.SpoofaxPreferences;
+import org.metaborg.spoofax.eclipse.editor.completion.CompletionPrefetcher;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Update pipeline of a document, shared by all editors that show the document, such as split editors and editors opened
+ * with 'New Editor'. Keeps track of the document version and the parse state, schedules a single parse and analysis
+ * update when the document changes, and passes styling and outline results on to every attached editor that is
+ * enabled. Pipelines must be retrieved, attached to, and detached from on the main thread.
+ */
+public class EditorUpdatePipeline<P extends IParseUnit, F> implements IEditorUpdateTarget<F> {
+    private static final ILogger logger = LoggerUtils.logger(EditorUpdatePipeline.class);
+    /**
+     * Source of document versions, shared by all pipelines such that versions of different pipelines never match.
+     */
+    private static final AtomicLong versions = new AtomicLong();
+    /**
+     * Pipelines by the document they update. Only accessed on the main thread.
+     */
+    private static final Map<IDocument, EditorUpdatePipeline<?, ?>> pipelines = Maps.newHashMap();
+
+    private final IDocument document;
+    private final FileObject resource;
+    private final String name;
+    private final SpoofaxPreferences preferences;
+    private final IEditorUpdateDelay updateDelay;
+    private final IParseResultUpdater<P> parseResultProcessor;
+    private final IAnalysisResultUpdater<P, ?> analysisResultProcessor;
+
+    private final EditorParseState<P> parseState = new EditorParseState<>();
+    private final List<IEclipseEditor<F>> editors = new CopyOnWriteArrayList<>();
+    private final IDocumentListener documentListener = new DocumentListener();
+
+    private volatile long documentVersion = versions.incrementAndGet();
+    private @Nullable EditorUpdateScheduler updateScheduler;
+    private @Nullable EditorUpdateScheduler analysisScheduler;
+    private @Nullable CompletionPrefetcher<P, F> completionPrefetcher;
+    /**
+     * End of the last edit to the document, the offset of the caret right after the edit, or -1 if there was no edit.
+     */
+    private int editOffset = -1;
+
+
+    public EditorUpdatePipeline(IDocument document, FileObject resource, String name, SpoofaxPreferences preferences,
+        IEditorUpdateDelay updateDelay, IParseResultUpdater<P> parseResultProcessor,
+        IAnalysisResultUpdater<P, ?> analysisResultProcessor) {
+        this.document = document;
+        this.resource = resource;
+        this.name = name;
+        this.preferences = preferences;
+        this.updateDelay = updateDelay;
+        this.parseResultProcessor = parseResultProcessor;
+        this.analysisResultProcessor = analysisResultProcessor;
+    }
+
+
+    /**
+     * @return Pipeline for given document, or null if no editor that shows the document is attached to a pipeline.
+     */
+    @SuppressWarnings("unchecked") public static @Nullable <P extends IParseUnit, F> EditorUpdatePipeline<P, F>
+        get(IDocument document) {
+        return (EditorUpdatePipeline<P, F>) pipelines.get(document);
+    }
+
+
+    /**
+     * Sets the schedulers that run the update stages of this pipeline. Must be called once, before attaching editors.
+     */
+    public void setSchedulers(EditorUpdateScheduler updateScheduler,
+        @Nullable EditorUpdateScheduler analysisScheduler) {
+        this.updateScheduler = updateScheduler;
+        this.analysisScheduler = analysisScheduler;
+    }
+
+    /**
+     * Sets the prefetcher of completions, to which the update stage passes successful parse results, and from which
+     * content assist takes prefetched completions.
+     */
+    public void setCompletionPrefetcher(CompletionPrefetcher<P, F> completionPrefetcher) {
+        this.completionPrefetcher = completionPrefetcher;
+    }
+
+    /**
+     * Attaches given editor, such that it receives the results of updates. The first attached editor registers this
+     * pipeline for its document.
+     */
+    public void attach(IEclipseEditor<F> editor) {
+        if(editors.isEmpty()) {
+            pipelines.put(document, this);
+            document.addDocumentListener(documentListener);
+        }
+        editors.add(editor);
+        logger.trace("Attached editor to update pipeline for {}, {} editor(s) attached", name, editors.size());
+    }
+
+    /**
+     * Detaches given editor. Disposes the pipeline when the last editor is detached.
+     */
+    public void detach(IEclipseEditor<F> editor) {
+        if(!editors.remove(editor) || !editors.isEmpty()) {
+            return;
+        }
+        logger.trace("Disposing update pipeline for {}", name);
+        document.removeDocumentListener(documentListener);
+        if(pipelines.get(document) == this) {
+            pipelines.remove(document);
+        }
+        final EditorUpdateScheduler scheduler = updateScheduler;
+        if(scheduler != null) {
+            scheduler.dispose();
+            updateScheduler = null;
+        }
+        final EditorUpdateScheduler analysisScheduler = this.analysisScheduler;
+        if(analysisScheduler != null) {
+            analysisScheduler.dispose();
+            this.analysisScheduler = null;
+        }
+        final CompletionPrefetcher<P, F> completionPrefetcher = this.completionPrefetcher;
+        if(completionPrefetcher != null) {
+            completionPrefetcher.dispose();
+            this.completionPrefetcher = null;
+        }
+    }
+
+
+    /**
+     * @return Parse state of the document.
+     */
+    public EditorParseState<P> parseState() {
+        return parseState;
+    }
+
+    /**
+     * @return Prefetcher of completions, or null if this pipeline does not prefetch completions.
+     */
+    public @Nullable CompletionPrefetcher<P, F> completionPrefetcher() {
+        return completionPrefetcher;
+    }
+
+    /**
+     * @return True if an update stage is running or pending.
+     */
+    public boolean updating() {
+        final EditorUpdateScheduler scheduler = updateScheduler;
+        final EditorUpdateScheduler analysisScheduler = this.analysisScheduler;
+        return (scheduler != null && scheduler.updating())
+            || (analysisScheduler != null && analysisScheduler.updating());
+    }
+
+    /**
+     * Changes the document version, rejecting results of running updates, and forgets the last parse, forcing a full
+     * parse on the next update.
+     */
+    public void invalidate() {
+        documentVersion = versions.incrementAndGet();
+        parseState.reset();
+    }
+
+    /**
+     * Requests an update of the current text of the document.
+     *
+     * @param instantaneous
+     *            True to update without delay.
+     * @param changed
+     *            True if the text changed since the last update.
+     */
+    public void schedule(boolean instantaneous, boolean changed) {
+        final EditorUpdateScheduler scheduler = updateScheduler;
+        if(scheduler == null) {
+            return;
+        }
+
+        if(changed) {
+            // Parse and analysis results of the previous text are outdated; invalidate them such that requesters, such
+            // as transformations, wait for the results of the new text instead of getting results with stale offsets.
+            // Styling is not invalidated, editors keep showing the previous styling, shifted by the edits.
+            parseResultProcessor.invalidate(resource);
+            analysisResultProcessor.invalidate(resource);
+            if(analysisScheduler != null) {
+                // The update job requests analysis of the new text.
+                analysisScheduler.invalidate();
+            }
+        }
+
+        final long parseMessagesDelayMs = updateDelay.parseMessagesDelay(resource);
+        final long analysisDelayMs = preferences.delayEditorAnalysis()
+            ? Math.max(5000, updateDelay.analysisDelay(resource)) : updateDelay.analysisDelay(resource);
+        final boolean analysis = !preferences.disableEditorAnalysis();
+        final int caretOffset = changed ? editOffset : caretOffset();
+        final EditorUpdateRequest request = new EditorUpdateRequest(document.get(), documentVersion,
+            parseState.edits(), changed, instantaneous, parseMessagesDelayMs, analysisDelayMs, analysis, caretOffset);
+        scheduler.schedule(request, instantaneous ? 0 : updateDelay.updateDelay(resource));
+    }
+
+
+    @Override public long documentVersion() {
+        return documentVersion;
+    }
+
+    @Override public void setStyle(Iterable<IRegionStyle<F>> style, String text, long documentVersion,
+        IProgressMonitor monitor) {
+        for(IEclipseEditor<F> editor : editors) {
+            if(editor.enabled()) {
+                editor.setStyle(style, text, documentVersion, monitor);
+            }
+        }
+    }
+
+    @Override public void setOutline(IOutline outline, long documentVersion, IProgressMonitor monitor) {
+        for(IEclipseEditor<F> editor : editors) {
+            if(editor.enabled()) {
+                editor.setOutline(outline, documentVersion, monitor);
+            }
+        }
+    }
+
+
+    private int caretOffset() {
+        // THREADING: the caret can only be retrieved on the main thread.
+        if(Display.getCurrent() == null) {
+            return -1;
+        }
+        for(IEclipseEditor<F> editor : editors) {
+            final ISourceViewer sourceViewer = editor.sourceViewer();
+            if(sourceViewer != null && sourceViewer.getTextWidget() != null) {
+                return sourceViewer.getSelectedRange().x;
+            }
+        }
+        return -1;
+    }
+
+    private boolean enabled() {
+        for(IEclipseEditor<F> editor : editors) {
+            if(editor.enabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private final class DocumentListener implements IDocumentListener {
+        @Override public void documentAboutToBeChanged(DocumentEvent event) {
+
+        }
+
+        @Override public void documentChanged(DocumentEvent event) {
+            documentVersion = versions.incrementAndGet();
+            // The caret has not moved yet while the document changes, use the end of the edit instead.
+            editOffset = event.getOffset() + (event.getText() != null ? event.getText().length() : 0);
+            parseState.edited(new DocumentEdit(event));
+            updateDelay.edited(resource);
+            if(enabled()) {
+                schedule(false, true);
+            }
+        }
+    }
+}
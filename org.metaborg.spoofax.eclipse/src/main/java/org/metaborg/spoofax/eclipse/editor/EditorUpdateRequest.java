@@ -0,0 +1,77 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+/**
+ * Request for updating an editor with a certain version of its text. Handled by the editor update job that was
+ * scheduled by an {@link EditorUpdateScheduler}.
+ */
+public class EditorUpdateRequest {
+    /**
+     * Text of the document to update the editor with.
+     */
+    public final String text;
+    /**
+     * Version of the document at the time {@link #text} was taken, see {@link IEclipseEditor#documentVersion()}.
+     */
+    public final long documentVersion;
+    /**
+     * Edits made to the document since the last successful parse, up to {@link #text}.
+     */
+    public final EditorParseState.Edits edits;
+    /**
+     * If the document was changed since the last update; previous analysis results cannot be reused.
+     */
+    public final boolean changed;
+    /**
+     * If the update should happen without any delays, for example when opening an editor.
+     */
+    public final boolean instantaneous;
+    /**
+     * Time to wait after parsing before showing parse messages, to prevent showing irrelevant messages while the user
+     * is still typing.
+     */
+    public final long parseMessagesDelayMs;
+    /**
+     * Time to wait before analyzing, to prevent running many analyses when small edits are made in succession.
+     */
+    public final long analysisDelayMs;
+    /**
+     * If the document should be analyzed.
+     */
+    public final boolean analysis;
+    /**
+     * Offset of the caret when the update was requested, or -1 if it is unknown. After an edit, this is the end of the
+     * edit.
+     */
+    public final int caretOffset;
+
+
+    public EditorUpdateRequest(String text, long documentVersion, EditorParseState.Edits edits, boolean changed,
+        boolean instantaneous, long parseMessagesDelayMs, long analysisDelayMs, boolean analysis, int caretOffset) {
+        this.text = text;
+        this.documentVersion = documentVersion;
+        this.edits = edits;
+        this.changed = changed;
+        this.instantaneous = instantaneous;
+        this.parseMessagesDelayMs = parseMessagesDelayMs;
+        this.analysisDelayMs = analysisDelayMs;
+        this.analysis = analysis;
+        this.caretOffset = caretOffset;
+    }
+
+
+    /**
+     * Merges this request with given newer request which replaces it. The newer text always wins, but a change in the
+     * replaced request must still be taken into account.
+     *
+     * @param newer
+     *            Request that replaces this request.
+     * @return Merged request.
+     */
+    public EditorUpdateRequest replaceWith(EditorUpdateRequest newer) {
+        if(!changed || newer.changed) {
+            return newer;
+        }
+        return new EditorUpdateRequest(newer.text, newer.documentVersion, newer.edits, true, newer.instantaneous,
+            newer.parseMessagesDelayMs, newer.analysisDelayMs, newer.analysis, newer.caretOffset);
+    }
+}
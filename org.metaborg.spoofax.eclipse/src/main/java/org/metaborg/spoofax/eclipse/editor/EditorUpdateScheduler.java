@@ -0,0 +1,256 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+/**
+ * Schedules editor updates on a single long-lived worker job per editor. Requests are put into a mailbox which only
+ * holds the latest request; a new request replaces a pending one instead of cancelling the worker. A running update is
+ * never cancelled by new requests, but can check {@link #superseded()} to skip work that has become irrelevant.
+ * Separate schedulers are used for separate stages of an editor update, such as parsing and analysis.
+ */
+public class EditorUpdateScheduler {
+    private static final ILogger logger = LoggerUtils.logger(EditorUpdateScheduler.class);
+
+    private final String name;
+    private final Object lock = new Object();
+
+    private @Nullable Job worker;
+    private @Nullable EditorUpdateRequest pending;
+    private long pendingDelayMs;
+    private long version = 0;
+    private long takenVersion = 0;
+    private boolean disposed = false;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+
+
+    public EditorUpdateScheduler(String name) {
+        this.name = name;
+    }
+
+
+    /**
+     * Sets the worker job that handles requests, by calling {@link #take()}. Must be called once, before scheduling
+     * requests. The scheduling rule of the worker must be set before calling this method.
+     */
+    public void setWorker(Job worker) {
+        synchronized(lock) {
+            this.worker = worker;
+        }
+        worker.addJobChangeListener(new JobChangeAdapter() {
+            @Override public void done(IJobChangeEvent event) {
+                // Requests that came in while the worker was running are handled as soon as the worker is done.
+                synchronized(lock) {
+                    if(pending != null) {
+                        scheduleWorker();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests an editor update, replacing any pending request.
+     *
+     * @param request
+     *            Request to handle.
+     * @param delayMs
+     *            Time to wait before handling the request. A new request restarts the wait.
+     */
+    public void schedule(EditorUpdateRequest request, long delayMs) {
+        synchronized(lock) {
+            if(disposed) {
+                return;
+            }
+            requested.incrementAndGet();
+            if(pending != null) {
+                coalesced.incrementAndGet();
+                pending = pending.replaceWith(request);
+            } else {
+                pending = request;
+            }
+            pendingDelayMs = delayMs;
+            lock.notifyAll();
+            scheduleWorker();
+        }
+    }
+
+    /**
+     * Takes the pending request out of the mailbox. Called by the worker job when it runs.
+     *
+     * @return Pending request, or null if there is none.
+     */
+    public @Nullable EditorUpdateRequest take() {
+        synchronized(lock) {
+            final EditorUpdateRequest request = pending;
+            pending = null;
+            takenVersion = version;
+            if(request != null) {
+                executed.incrementAndGet();
+            }
+            return request;
+        }
+    }
+
+    /**
+     * Drops the pending request, and marks the request currently being handled as outdated, without scheduling a new
+     * request. Used when a request will be replaced by a request that is not yet available, for example when analysis
+     * requests are outdated by an edit that has not been parsed yet.
+     */
+    public void invalidate() {
+        synchronized(lock) {
+            pending = null;
+            ++version;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return True if a newer request is pending or if the scheduler was invalidated, meaning that the request
+     *         currently being handled is outdated.
+     */
+    public boolean superseded() {
+        synchronized(lock) {
+            return outdated();
+        }
+    }
+
+    /**
+     * Waits for given time, or until a newer request comes in. Used by the worker to wait without holding on to
+     * requests that have become outdated.
+     *
+     * @param timeMs
+     *            Maximum time to wait.
+     * @return True if a newer request came in while waiting, false if the full time has passed.
+     * @throws InterruptedException
+     *             When the worker thread is interrupted while waiting.
+     */
+    public boolean awaitSuperseded(long timeMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeMs;
+        synchronized(lock) {
+            long remaining = timeMs;
+            while(!outdated() && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return outdated();
+        }
+    }
+
+    /**
+     * Records that the worker stopped handling a request because it was superseded by a newer request.
+     */
+    public void recordSuperseded() {
+        superseded.incrementAndGet();
+    }
+
+    /**
+     * @return True if the worker is handling or about to handle a request.
+     */
+    public boolean updating() {
+        synchronized(lock) {
+            return pending != null || (worker != null && worker.getState() != Job.NONE);
+        }
+    }
+
+    /**
+     * Drops the pending request and cancels the worker. No requests are accepted after disposing.
+     */
+    public void dispose() {
+        final Job cancelWorker;
+        synchronized(lock) {
+            disposed = true;
+            pending = null;
+            cancelWorker = worker;
+            lock.notifyAll();
+        }
+        if(cancelWorker != null) {
+            cancelWorker.cancel();
+        }
+        logger.debug("Disposed editor update scheduler for {}; {}", name, this);
+    }
+
+
+    /**
+     * @return Number of requests that were scheduled.
+     */
+    public long requested() {
+        return requested.get();
+    }
+
+    /**
+     * @return Number of requests that were replaced by a newer request before they were handled.
+     */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return Number of requests that were taken by the worker.
+     */
+    public long executed() {
+        return executed.get();
+    }
+
+    /**
+     * @return Number of requests that the worker stopped handling because they were superseded.
+     */
+    public long supersededCount() {
+        return superseded.get();
+    }
+
+    /**
+     * @return Number of requests waiting to be handled, either 0 or 1.
+     */
+    public int queued() {
+        synchronized(lock) {
+            return pending != null ? 1 : 0;
+        }
+    }
+
+
+    private boolean outdated() {
+        return pending != null || version != takenVersion || disposed;
+    }
+
+    private void scheduleWorker() {
+        if(worker == null) {
+            logger.error("Cannot schedule editor update for {}, worker has not been set", name);
+            return;
+        }
+        switch(worker.getState()) {
+            case Job.RUNNING:
+                // Rescheduled by the job change listener when done, using the delay of the latest request.
+                break;
+            case Job.WAITING:
+            case Job.SLEEPING:
+                // Restart the delay.
+                if(worker.sleep()) {
+                    worker.wakeUp(pendingDelayMs);
+                } else {
+                    worker.schedule(pendingDelayMs);
+                }
+                break;
+            case Job.NONE:
+            default:
+                worker.schedule(pendingDelayMs);
+                break;
+        }
+    }
+
+
+    @Override public String toString() {
+        return "requested: " + requested.get() + ", coalesced: " + coalesced.get() + ", executed: " + executed.get()
+            + ", superseded: " + superseded.get() + ", queued: " + queued();
+    }
+}
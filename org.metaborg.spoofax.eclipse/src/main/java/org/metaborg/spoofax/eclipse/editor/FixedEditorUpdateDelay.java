@@ -0,0 +1,46 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Editor update delay strategy with fixed delays, ignoring measurements.
+ */
+public class FixedEditorUpdateDelay implements IEditorUpdateDelay {
+    private final long updateDelayMs;
+    private final long parseMessagesDelayMs;
+    private final long analysisDelayMs;
+
+
+    public FixedEditorUpdateDelay(long updateDelayMs, long parseMessagesDelayMs, long analysisDelayMs) {
+        this.updateDelayMs = updateDelayMs;
+        this.parseMessagesDelayMs = parseMessagesDelayMs;
+        this.analysisDelayMs = analysisDelayMs;
+    }
+
+    public FixedEditorUpdateDelay() {
+        this(300, 300, 500);
+    }
+
+
+    @Override public void edited(FileObject resource) {
+    }
+
+    @Override public void parsed(FileObject resource, long durationMs) {
+    }
+
+    @Override public void analyzed(FileObject resource, long durationMs) {
+    }
+
+
+    @Override public long updateDelay(FileObject resource) {
+        return updateDelayMs;
+    }
+
+    @Override public long parseMessagesDelay(FileObject resource) {
+        return parseMessagesDelayMs;
+    }
+
+    @Override public long analysisDelay(FileObject resource) {
+        return analysisDelayMs;
+    }
+}
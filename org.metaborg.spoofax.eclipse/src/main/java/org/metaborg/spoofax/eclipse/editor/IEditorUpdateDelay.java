@@ -0,0 +1,41 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import org.apache.commons.vfs2.FileObject;
+
+/**
+ * Interface for strategies that determine how long editor updates wait before parsing, before showing parse messages,
+ * and before analyzing. Strategies are informed of edits and of the time that parsing and analysis took, so that they
+ * can adapt delays to the file and to the user's typing rate. Implementations must be thread-safe.
+ */
+public interface IEditorUpdateDelay {
+    /**
+     * Records that given resource was edited in an editor.
+     */
+    void edited(FileObject resource);
+
+    /**
+     * Records that parsing given resource took given time.
+     */
+    void parsed(FileObject resource, long durationMs);
+
+    /**
+     * Records that analyzing given resource took given time.
+     */
+    void analyzed(FileObject resource, long durationMs);
+
+
+    /**
+     * @return Time to wait after an edit before parsing given resource.
+     */
+    long updateDelay(FileObject resource);
+
+    /**
+     * @return Time to wait after parsing before showing parse messages of given resource.
+     */
+    long parseMessagesDelay(FileObject resource);
+
+    /**
+     * @return Time to wait after showing parse messages before analyzing given resource.
+     */
+    long analysisDelay(FileObject resource);
+}
@@ -0,0 +1,28 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.metaborg.core.outline.IOutline;
+import org.metaborg.core.style.IRegionStyle;
+
+/**
+ * Receiver of the results of editor updates.
+ */
+public interface IEditorUpdateTarget<F> {
+    /**
+     * @return Version of the document, which changes whenever the document or editor input changes. Can be called from
+     *         any thread.
+     */
+    long documentVersion();
+
+    /**
+     * Sets the text styling for given text at given document version, using given monitor for cancellation. Styling is
+     * ignored if the document version changed. Can be called from any thread.
+     */
+    void setStyle(Iterable<IRegionStyle<F>> style, String text, long documentVersion, IProgressMonitor monitor);
+
+    /**
+     * Sets the outline information for given document version, using given monitor for cancellation. The outline is
+     * ignored if the document version changed. Can be called from any thread.
+     */
+    void setOutline(IOutline outline, long documentVersion, IProgressMonitor monitor);
+}
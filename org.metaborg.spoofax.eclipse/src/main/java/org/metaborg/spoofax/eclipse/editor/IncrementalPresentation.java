@@ -0,0 +1,149 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TextPresentation;
+import org.eclipse.swt.custom.StyleRange;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Splits a text presentation into chunks of style ranges that can be applied to a viewer one by one, such that large
+ * documents can be styled incrementally, starting at the visible part of the document. The extents of the chunks cover
+ * the entire text without gaps, such that stale styling between style ranges is also replaced. Chunks are tracked as
+ * applied when their presentation is created. Not thread-safe; only use from one thread after construction.
+ */
+public class IncrementalPresentation {
+    private final StyleRange[] styleRanges;
+    private final @Nullable StyleRange defaultStyleRange;
+    private final int textLength;
+    private final int chunkSize;
+    private final boolean[] applied;
+    private int remaining;
+
+
+    /**
+     * Creates an incremental presentation.
+     *
+     * @param presentation
+     *            Text presentation to split into chunks.
+     * @param textLength
+     *            Length of the text the presentation is created for.
+     * @param chunkSize
+     *            Maximum number of style ranges per chunk.
+     */
+    public IncrementalPresentation(TextPresentation presentation, int textLength, int chunkSize) {
+        final List<StyleRange> ranges = Lists.newArrayList();
+        for(Iterator<StyleRange> iter = presentation.getNonDefaultStyleRangeIterator(); iter.hasNext();) {
+            ranges.add(iter.next());
+        }
+        this.styleRanges = ranges.toArray(new StyleRange[ranges.size()]);
+        this.defaultStyleRange = presentation.getDefaultStyleRange();
+        this.textLength = textLength;
+        this.chunkSize = Math.max(1, chunkSize);
+        final int chunks = Math.max(1, (styleRanges.length + this.chunkSize - 1) / this.chunkSize);
+        this.applied = new boolean[chunks];
+        this.remaining = chunks;
+    }
+
+
+    /**
+     * @return Number of chunks.
+     */
+    public int chunks() {
+        return applied.length;
+    }
+
+    /**
+     * @return True if all chunks have been applied.
+     */
+    public boolean done() {
+        return remaining == 0;
+    }
+
+    /**
+     * @return Index of the chunk whose extent contains given offset.
+     */
+    public int chunkAt(int offset) {
+        // Find the first style range that ends after given offset.
+        int low = 0;
+        int high = styleRanges.length;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            final StyleRange range = styleRanges[mid];
+            if(range.start + range.length <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return Math.min(low / chunkSize, applied.length - 1);
+    }
+
+    /**
+     * @return True if chunk with given index has been applied.
+     */
+    public boolean applied(int chunk) {
+        return applied[chunk];
+    }
+
+    /**
+     * Returns the chunk that has not been applied yet, and is closest to given chunk.
+     *
+     * @param chunk
+     *            Chunk to search around, typically the chunk at the start of the visible part of the document.
+     * @return Index of nearest unapplied chunk, or -1 if all chunks have been applied.
+     */
+    public int nearestUnapplied(int chunk) {
+        if(remaining == 0) {
+            return -1;
+        }
+        for(int distance = 0; distance < applied.length; ++distance) {
+            // Prefer chunks after given chunk, since editing and scrolling usually proceeds downwards.
+            final int after = chunk + distance;
+            if(after < applied.length && !applied[after]) {
+                return after;
+            }
+            final int before = chunk - distance;
+            if(before >= 0 && !applied[before]) {
+                return before;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Creates a text presentation for chunk with given index, and marks the chunk as applied.
+     *
+     * @param chunk
+     *            Index of the chunk.
+     * @return Text presentation for the chunk.
+     */
+    public TextPresentation presentation(int chunk) {
+        final int from = chunk * chunkSize;
+        final int to = Math.min(styleRanges.length, from + chunkSize);
+        final int extentStart = chunk == 0 ? 0 : styleRanges[from].start;
+        final int extentEnd = chunk == applied.length - 1 ? textLength : styleRanges[to].start;
+
+        final TextPresentation presentation =
+            new TextPresentation(new Region(extentStart, extentEnd - extentStart), to - from);
+        if(defaultStyleRange != null) {
+            final StyleRange chunkDefaultStyleRange = (StyleRange) defaultStyleRange.clone();
+            chunkDefaultStyleRange.start = extentStart;
+            chunkDefaultStyleRange.length = extentEnd - extentStart;
+            presentation.setDefaultStyleRange(chunkDefaultStyleRange);
+        }
+        for(int i = from; i < to; ++i) {
+            presentation.addStyleRange(styleRanges[i]);
+        }
+
+        if(!applied[chunk]) {
+            applied[chunk] = true;
+            --remaining;
+        }
+        return presentation;
+    }
+}
@@ -2,6 +2,7 @@ package org.metaborg.spoofax.eclipse.editor;
 
 import java.awt.Color;
 import java.util.Collection;
+import java.util.List;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.vfs2.FileObject;
@@ -11,11 +12,14 @@ import org.eclipse.core.runtime.jobs.IJobManager;
 import org.eclipse.core.runtime.jobs.ISchedulingRule;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextOperationTarget;
 import org.eclipse.jface.text.ITextViewerExtension4;
+import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.TextPresentation;
 import org.eclipse.jface.text.source.DefaultCharacterPairMatcher;
 import org.eclipse.jface.text.source.ICharacterPairMatcher;
@@ -56,6 +60,7 @@ import org.metaborg.core.tracing.IResolverService;
 import org.metaborg.core.unit.IInputUnitService;
 import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
 import org.metaborg.spoofax.eclipse.SpoofaxPreferences;
+import org.metaborg.spoofax.eclipse.editor.completion.CompletionPrefetcher;
 import org.metaborg.spoofax.eclipse.editor.outline.SpoofaxOutlinePage;
 import org.metaborg.spoofax.eclipse.editor.outline.SpoofaxOutlinePopup;
 import org.metaborg.spoofax.eclipse.job.GlobalSchedulingRules;
@@ -71,6 +76,15 @@ import com.google.inject.Injector;
 public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit, A extends IAnalyzeUnit, AU extends IAnalyzeUnitUpdate, F>
     extends TextEditor implements IEclipseEditor<F> {
     private static final ILogger logger = LoggerUtils.logger(MetaBorgEditor.class);
+    /**
+     * Maximum number of style ranges that are applied to the viewer at once. Larger presentations are applied
+     * incrementally, starting at the visible part of the document.
+     */
+    private static final int styleChunkSize = 2000;
+    /**
+     * Number of lines above and below the visible part of the document that are styled together with it.
+     */
+    private static final int viewportMarginLines = 100;
 
     protected IEclipseResourceService resourceService;
     protected ILanguageIdentifierService languageIdentifier;
@@ -90,6 +104,9 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
 
     protected GlobalSchedulingRules globalRules;
     protected SpoofaxPreferences preferences;
+    protected IEditorUpdateDelay updateDelay;
+    protected EditorParseCache parseCache;
+    protected PersistentEditorCache persistentCache;
 
     protected IJobManager jobManager;
 
@@ -99,6 +116,7 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
     protected SpoofaxOutlinePopup outlinePopup;
 
     protected DocumentListener documentListener;
+    protected @Nullable EditorUpdatePipeline<P, F> pipeline;
     protected ISourceViewer sourceViewer;
     protected ISourceViewerExtension2 sourceViewerExt2;
     protected ITextViewerExtension4 textViewerExt4;
@@ -109,6 +127,15 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
     protected IDocument document;
     protected @Nullable FileObject resource;
     protected ILanguageImpl language;
+    /**
+     * Incremented on the main thread whenever the styling of the viewer is replaced or the document is changed, to stop
+     * applying outdated incremental styling.
+     */
+    protected int styleGeneration = 0;
+    /**
+     * Styling that was last applied to the viewer in its entirety, or null if the styling of the viewer is unknown.
+     */
+    protected volatile @Nullable StyleRangeIndex appliedStyle;
 
 
     public MetaBorgEditor() {
@@ -149,6 +176,10 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         logger.debug("Enabling editor for {}", inputName);
         documentListener = new DocumentListener();
         document.addDocumentListener(documentListener);
+        // Styling was not updated while the editor was disabled.
+        if(pipeline != null) {
+            pipeline.invalidate();
+        }
         scheduleJob(true, false);
     }
 
@@ -166,6 +197,8 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         presentationMerger.invalidate();
         display.asyncExec(new Runnable() {
             @Override public void run() {
+                ++styleGeneration;
+                appliedStyle = null;
                 sourceViewer.changeTextPresentation(blackPresentation, true);
             }
         });
@@ -176,6 +209,9 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
             return;
         }
         logger.debug("Force updating editor for {}", inputName);
+        if(pipeline != null) {
+            pipeline.parseState().reset();
+        }
         scheduleJob(true, false);
     }
 
@@ -190,6 +226,9 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         } else {
             language = null;
         }
+        if(pipeline != null) {
+            pipeline.parseState().reset();
+        }
 
         final Display display = Display.getDefault();
         display.asyncExec(new Runnable() {
@@ -243,8 +282,8 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
 
 
     @Override public boolean editorIsUpdating() {
-        final Job[] existingJobs = jobManager.find(this);
-        return existingJobs.length > 0;
+        final EditorUpdatePipeline<P, F> pipeline = this.pipeline;
+        return pipeline != null && pipeline.updating();
     }
 
 
@@ -257,11 +296,24 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
     }
 
 
-    @Override public void setStyle(Iterable<IRegionStyle<F>> style, final String text, final IProgressMonitor monitor) {
+    @Override public long documentVersion() {
+        final EditorUpdatePipeline<P, F> pipeline = this.pipeline;
+        // Versions of pipelines start at 1, such that results are rejected when the editor has no pipeline.
+        return pipeline != null ? pipeline.documentVersion() : 0;
+    }
+
+    @Override public void setStyle(Iterable<IRegionStyle<F>> style, final String text, final long version,
+        final IProgressMonitor monitor) {
         final Display display = Display.getDefault();
 
         final TextPresentation textPresentation = StyleUtils.createTextPresentation(style, display);
-        presentationMerger.set(textPresentation);
+        final StyleRangeIndex index = new StyleRangeIndex(textPresentation, text);
+
+        // Only update the regions whose styling changed since the styling that was last applied to the viewer.
+        final StyleRangeIndex previousIndex = appliedStyle;
+        final List<IRegion> damage = previousIndex != null ? StyleRangeIndex.damage(previousIndex, index) : null;
+        final IncrementalPresentation incrementalPresentation =
+            damage == null ? new IncrementalPresentation(textPresentation, text.length(), styleChunkSize) : null;
 
         // Update styling on the main thread, required by Eclipse.
         display.asyncExec(new Runnable() {
@@ -269,15 +321,36 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
                 if(monitor.isCanceled())
                     return;
                 // Also cancel if text presentation is not valid for current text any more.
-                if(document == null || !document.get().equals(text)) {
+                if(document == null || documentVersion() != version) {
+                    return;
+                }
+                // Replace the shifted styling of the merger on the main thread, where edits shift it, to keep it in sync
+                // with the document.
+                presentationMerger.set(index);
+                final int generation = ++styleGeneration;
+                if(damage != null && appliedStyle == previousIndex) {
+                    for(IRegion region : damage) {
+                        sourceViewer.changeTextPresentation(index.presentation(region), true);
+                    }
+                    appliedStyle = index;
                     return;
                 }
-                sourceViewer.changeTextPresentation(textPresentation, true);
+
+                // Styling of the viewer is unknown until the entire presentation has been applied.
+                appliedStyle = null;
+                final IncrementalPresentation presentation = incrementalPresentation != null ? incrementalPresentation
+                    : new IncrementalPresentation(textPresentation, text.length(), styleChunkSize);
+                if(presentation.chunks() == 1) {
+                    sourceViewer.changeTextPresentation(textPresentation, true);
+                    appliedStyle = index;
+                } else {
+                    applyStyleChunks(presentation, index, generation, display, monitor);
+                }
             }
         });
     }
 
-    @Override public void setOutline(final IOutline outline, final IProgressMonitor monitor) {
+    @Override public void setOutline(final IOutline outline, final long version, final IProgressMonitor monitor) {
         final Display display = Display.getDefault();
 
         // Update outline on the main thread, required by Eclipse.
@@ -285,6 +358,10 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
             public void run() {
                 if(monitor.isCanceled())
                     return;
+                // Also cancel if outline is not valid for current text any more.
+                if(documentVersion() != version) {
+                    return;
+                }
                 outlinePage.update(outline);
                 outlinePopup.update(outline);
             }
@@ -320,6 +397,9 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         this.projectService = injector.getInstance(IProjectService.class);
         this.globalRules = injector.getInstance(GlobalSchedulingRules.class);
         this.preferences = injector.getInstance(SpoofaxPreferences.class);
+        this.updateDelay = injector.getInstance(IEditorUpdateDelay.class);
+        this.parseCache = injector.getInstance(EditorParseCache.class);
+        this.persistentCache = injector.getInstance(PersistentEditorCache.class);
 
     }
 
@@ -327,7 +407,8 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
 
     private SourceViewerConfiguration createSourceViewerConfiguration() {
         return new MetaBorgSourceViewerConfiguration<>(resourceService, unitService, syntaxService,
-            parseResultProcessor, analysisResultProcessor, resolverService, hoverService, getPreferenceStore(), this);
+            parseResultProcessor, analysisResultProcessor, resolverService, hoverService, parseCache,
+            getPreferenceStore(), this);
     }
 
     @Override protected ISourceViewer createSourceViewer(Composite parent, IVerticalRuler ruler, int styles) {
@@ -371,6 +452,7 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         // Create quick outline control.
         this.outlinePopup = new SpoofaxOutlinePopup(getSite().getShell(), this);
 
+        attachPipeline();
         scheduleJob(true, false);
 
         return sourceViewer;
@@ -405,7 +487,7 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
     }
 
     @Override public void dispose() {
-        cancelJobs(input);
+        detachPipeline();
 
         if(documentListener != null) {
             document.removeDocumentListener(documentListener);
@@ -448,52 +530,136 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         return true;
     }
 
-    private void scheduleJob(boolean instantaneous, boolean changed) {
-        if(!checkInitialized() || resource == null) {
+    /**
+     * Applies the chunks of given presentation that are in the visible part of the document, or else the unapplied
+     * chunk nearest to it, and continues with the remaining chunks in a later main thread run, such that the main
+     * thread stays responsive for large documents. Styling follows the visible part of the document as the user
+     * scrolls. Must be called on the main thread.
+     */
+    private void applyStyleChunks(final IncrementalPresentation presentation, final StyleRangeIndex index,
+        final int generation, final Display display, final IProgressMonitor monitor) {
+        if(monitor.isCanceled() || generation != styleGeneration || sourceViewer == null || document == null) {
             return;
         }
 
-        cancelJobs(input);
+        final IRegion viewport = viewport();
+        final int firstChunk = presentation.chunkAt(viewport.getOffset());
+        final int lastChunk = presentation.chunkAt(viewport.getOffset() + viewport.getLength());
+        boolean appliedViewport = false;
+        for(int chunk = firstChunk; chunk <= lastChunk; ++chunk) {
+            if(!presentation.applied(chunk)) {
+                sourceViewer.changeTextPresentation(presentation.presentation(chunk), true);
+                appliedViewport = true;
+            }
+        }
+        if(!appliedViewport) {
+            final int chunk = presentation.nearestUnapplied(lastChunk);
+            if(chunk >= 0) {
+                sourceViewer.changeTextPresentation(presentation.presentation(chunk), true);
+            }
+        }
+
+        if(presentation.done()) {
+            appliedStyle = index;
+        } else {
+            display.asyncExec(new Runnable() {
+                @Override public void run() {
+                    applyStyleChunks(presentation, index, generation, display, monitor);
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Region of the document that is visible in the viewer, extended with a margin of lines.
+     */
+    private IRegion viewport() {
+        try {
+            final int lastLine = Math.max(0, document.getNumberOfLines() - 1);
+            final int topLine = Math.max(0, sourceViewer.getTopIndex() - viewportMarginLines);
+            final int bottomLine = Math.min(lastLine, sourceViewer.getBottomIndex() + viewportMarginLines);
+            final int start = document.getLineOffset(topLine);
+            final int end = document.getLineOffset(bottomLine) + document.getLineLength(bottomLine);
+            return new Region(start, Math.max(0, end - start));
+        } catch(BadLocationException e) {
+            return new Region(0, document.getLength());
+        }
+    }
 
-        // THREADING: invalidate text styling here on the main thread (instead of in the editor update job), to prevent
-        // race conditions.
-        if(changed) {
-            presentationMerger.invalidate();
-            parseResultProcessor.invalidate(resource);
-            analysisResultProcessor.invalidate(resource);
+    /**
+     * Attaches this editor to the update pipeline of its document, creating the pipeline if no other editor shows the
+     * document, such that editors on the same document share parsing, analysis, and marker updates.
+     */
+    private void attachPipeline() {
+        if(resource == null) {
+            return;
+        }
+
+        EditorUpdatePipeline<P, F> pipeline = EditorUpdatePipeline.get(document);
+        if(pipeline != null) {
+            logger.debug("Sharing editor updates for {} with other editors of the same document", inputName);
+            pipeline.attach(this);
+            this.pipeline = pipeline;
+            return;
         }
 
-        final long analysisDelayMs = preferences.delayEditorAnalysis() ? 5000 : 500;
-        final boolean analysis = !preferences.disableEditorAnalysis();
-        final Job job = new EditorUpdateJob<>(resourceService, languageIdentifier, contextService, projectService,
-            unitService, syntaxService, analysisService, categorizerService, stylerService, outlineService,
-            parseResultProcessor, analysisResultProcessor, analysisResultRequester, this, input, eclipseResource, resource, document.get(),
-            changed, instantaneous, analysisDelayMs, analysis);
-        final ISchedulingRule rule;
-        if(eclipseResource == null) {
-            rule = new MultiRule(new ISchedulingRule[] { globalRules.startupReadLock() });
-        } else if(!analysis) {
-            rule = new MultiRule(new ISchedulingRule[] { globalRules.startupReadLock(), eclipseResource });
+        pipeline = new EditorUpdatePipeline<>(document, resource, inputName, preferences, updateDelay,
+            parseResultProcessor, analysisResultProcessor);
+        // Parsing, styling, outline, and parse messages do not hold the project rule, such that they do not wait for
+        // builds. The update job takes the startup and Stratego locks itself, see EditorUpdateJob.
+        final EditorUpdateScheduler scheduler = new EditorUpdateScheduler(inputName);
+        final EditorUpdateScheduler analysisScheduler;
+        if(eclipseResource != null) {
+            analysisScheduler = new EditorUpdateScheduler(inputName + " (analysis)");
+            final Job analysisJob = new EditorAnalysisJob<>(resourceService, contextService, projectService,
+                analysisService, analysisResultProcessor, analysisResultRequester, updateDelay, pipeline, input,
+                eclipseResource, resource, pipeline.parseState(), analysisScheduler);
+            analysisJob.setRule(new MultiRule(new ISchedulingRule[] { globalRules.startupReadLock(),
+                globalRules.strategoLock(), eclipseResource.getProject() }));
+            analysisScheduler.setWorker(analysisJob);
         } else {
-            rule = new MultiRule(new ISchedulingRule[] { globalRules.startupReadLock(), globalRules.strategoLock(),
-                eclipseResource.getProject() });
+            // Analysis only works with a project context, which is unavailable when the eclipse resource is null.
+            analysisScheduler = null;
+        }
+        final CompletionPrefetcher<P, F> completionPrefetcher =
+            new CompletionPrefetcher<>(preferences, pipeline, inputName);
+        final Job job = new EditorUpdateJob<>(languageIdentifier, contextService, projectService, unitService,
+            syntaxService, analysisService, categorizerService, stylerService, outlineService, parseResultProcessor,
+            updateDelay, parseCache, persistentCache, completionPrefetcher, pipeline, input, eclipseResource, resource,
+            pipeline.parseState(), scheduler, analysisScheduler, globalRules.startupReadLock(),
+            globalRules.strategoLock());
+        scheduler.setWorker(job);
+        pipeline.setSchedulers(scheduler, analysisScheduler);
+        pipeline.setCompletionPrefetcher(completionPrefetcher);
+        pipeline.attach(this);
+        this.pipeline = pipeline;
+    }
+
+    private void detachPipeline() {
+        final EditorUpdatePipeline<P, F> pipeline = this.pipeline;
+        if(pipeline != null) {
+            logger.trace("Detaching editor for {} from its update pipeline", inputName);
+            pipeline.detach(this);
+            this.pipeline = null;
         }
-        job.setRule(rule);
-        job.schedule(instantaneous ? 0 : 300);
     }
 
-    private void cancelJobs(IEditorInput specificInput) {
-        logger.trace("Cancelling editor update jobs for {}", specificInput);
-        final Job[] existingJobs = jobManager.find(specificInput);
-        for(Job job : existingJobs) {
-            job.cancel();
+    private void scheduleJob(boolean instantaneous, boolean changed) {
+        if(!checkInitialized() || pipeline == null) {
+            return;
         }
+        pipeline.schedule(instantaneous, changed);
     }
 
     private void editorInputChanged() {
         final IEditorInput oldInput = input;
         final IDocument oldDocument = document;
 
+        // Stop updating for the old input. Updates for the new input are handled by the pipeline of the new document.
+        detachPipeline();
+        presentationMerger.invalidate();
+        appliedStyle = null;
+
         logger.debug("Editor input changed from {} to {}", oldInput, input);
 
         // Unregister old document listener and register a new one, because the input changed which also changes the
@@ -519,7 +685,7 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         // Reconfigure the editor because the language may have changed.
         reconfigure();
 
-        cancelJobs(oldInput);
+        attachPipeline();
         scheduleJob(true, true);
     }
 
@@ -529,7 +695,15 @@ public abstract class MetaBorgEditor<I extends IInputUnit, P extends IParseUnit,
         }
 
         @Override public void documentChanged(DocumentEvent event) {
-            scheduleJob(false, true);
+            // Incremental styling of the previous text is outdated.
+            ++styleGeneration;
+            // THREADING: shift text styling here on the main thread (instead of in the editor update job), such that it
+            // stays in sync with the document, and keeps the editor styled until the new styling arrives. Updates are
+            // scheduled by the pipeline, which listens to the document as well.
+            final StyleRangeIndex style = presentationMerger.get();
+            if(style != null) {
+                presentationMerger.set(style.shift(new DocumentEdit(event)));
+            }
         }
     }
 
@@ -50,6 +50,7 @@ public class MetaBorgSourceViewerConfiguration<I extends IInputUnit, P extends I
     private final IAnalysisResultRequester<I, A> analysisResultRequester;
     private final IResolverService<P, A> referenceResolver;
     private final IHoverService<P, A> hoverService;
+    private final EditorParseCache parseCache;
 
     private final IEclipseEditor<F> editor;
 
@@ -57,7 +58,8 @@ public class MetaBorgSourceViewerConfiguration<I extends IInputUnit, P extends I
     public MetaBorgSourceViewerConfiguration(IEclipseResourceService resourceService, IInputUnitService<I> unitService,
         ISyntaxService<I, P> syntaxService, IParseResultRequester<I, P> parseResultRequester,
         IAnalysisResultRequester<I, A> analysisResultRequester, IResolverService<P, A> referenceResolver,
-        IHoverService<P, A> hoverService, IPreferenceStore preferenceStore, IEclipseEditor<F> editor) {
+        IHoverService<P, A> hoverService, EditorParseCache parseCache, IPreferenceStore preferenceStore,
+        IEclipseEditor<F> editor) {
         super(preferenceStore);
 
         this.resourceService = resourceService;
@@ -68,7 +70,7 @@ public class MetaBorgSourceViewerConfiguration<I extends IInputUnit, P extends I
         this.analysisResultRequester = analysisResultRequester;
         this.referenceResolver = referenceResolver;
         this.hoverService = hoverService;
-
+        this.parseCache = parseCache;
 
         this.editor = editor;
     }
@@ -96,8 +98,10 @@ public class MetaBorgSourceViewerConfiguration<I extends IInputUnit, P extends I
         final ContentAssistant assistant = new ContentAssistant();
         final IInformationControlCreator informationControlCreator = getCompletionInformationControlCreator();
         final SpoofaxContentAssistProcessor<I, P> processor = new SpoofaxContentAssistProcessor<>(unitService,
-            parseResultRequester, informationControlCreator, resource, document, language);
+            syntaxService, parseCache, fPreferenceStore, informationControlCreator, resource, document,
+            language);
         assistant.setContentAssistProcessor(processor, IDocument.DEFAULT_CONTENT_TYPE);
+        assistant.addCompletionListener(processor);
         assistant.setRepeatedInvocationMode(true);
         assistant.setInformationControlCreator(informationControlCreator);
         return assistant;
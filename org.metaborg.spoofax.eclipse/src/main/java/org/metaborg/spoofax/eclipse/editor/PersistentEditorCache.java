@@ -0,0 +1,385 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import org.metaborg.core.language.ILanguageCache;
+import org.metaborg.core.language.ILanguageComponent;
+import org.metaborg.core.language.ILanguageImpl;
+import org.metaborg.core.language.ILanguageService;
+import org.metaborg.core.language.LanguageIdentifier;
+import org.metaborg.core.source.SourceRegion;
+import org.metaborg.core.style.IRegionStyle;
+import org.metaborg.core.style.IStyle;
+import org.metaborg.core.style.RegionStyle;
+import org.metaborg.core.style.Style;
+import org.metaborg.spoofax.core.terms.ITermFactoryService;
+import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
+import org.metaborg.spoofax.eclipse.SpoofaxPreferences;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+import org.spoofax.interpreter.terms.IStrategoAppl;
+import org.spoofax.interpreter.terms.IStrategoConstructor;
+import org.spoofax.interpreter.terms.IStrategoInt;
+import org.spoofax.interpreter.terms.IStrategoString;
+import org.spoofax.interpreter.terms.IStrategoTerm;
+import org.spoofax.interpreter.terms.ITermFactory;
+import org.spoofax.terms.ParseError;
+import org.spoofax.terms.io.binary.SAFWriter;
+import org.spoofax.terms.io.binary.TermReader;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+
+/**
+ * Opt-in on-disk cache of editor styling, stored as binary (SAF) ATerms in the workspace metadata area of the plugin.
+ * Entries are keyed by a hash of the text and the dialect, and grouped in a directory per language identifier and
+ * version, such that editors that are opened after a restart are styled before their text is parsed. Directories of
+ * versions of a language that are no longer loaded are removed when a language version is first used, directories of
+ * reloaded languages are removed when the language is reloaded, and the least recently used entries are removed when
+ * the total size of the cache exceeds a bound.
+ *
+ * Parsed ASTs themselves are not cached: ATerm files do not preserve the origin and token information that styling,
+ * outlines, and analysis need, so the editor still parses, but shows the styling of the last parse of the same text
+ * right away.
+ */
+public class PersistentEditorCache implements ILanguageCache {
+    private static final ILogger logger = LoggerUtils.logger(PersistentEditorCache.class);
+    private static final String extension = ".saf";
+    private static final long maxSizeBytes = 64 * 1024 * 1024;
+
+    private static final int bold = 1;
+    private static final int italic = 2;
+    private static final int underscore = 4;
+    private static final int strikeout = 8;
+    private static final int hasColor = 16;
+    private static final int hasBackgroundColor = 32;
+
+    private final SpoofaxPreferences preferences;
+    private final ILanguageService languageService;
+    private final ITermFactory termFactory;
+    private final IStrategoConstructor stylesConstructor;
+    private final IStrategoConstructor styleConstructor;
+
+    private final Set<LanguageIdentifier> checkedLanguages = Sets.newHashSet();
+    private long size = -1;
+
+
+    @Inject public PersistentEditorCache(SpoofaxPreferences preferences, ILanguageService languageService,
+        ITermFactoryService termFactoryService) {
+        this.preferences = preferences;
+        this.languageService = languageService;
+        this.termFactory = termFactoryService.getGeneric();
+        this.stylesConstructor = termFactory.makeConstructor("Styles", 3);
+        this.styleConstructor = termFactory.makeConstructor("Style", 5);
+    }
+
+
+    /**
+     * @return True if the cache is enabled in the preferences.
+     */
+    public boolean enabled() {
+        return preferences.persistentEditorCache();
+    }
+
+    /**
+     * Gets the cached styling of given text.
+     *
+     * @param text
+     *            Text that was styled.
+     * @param langImpl
+     *            Language the text was parsed with.
+     * @param dialect
+     *            Dialect the text was parsed with, or null if there is no dialect.
+     * @return Cached styling, or null if the cache is disabled or the styling of the text was not cached.
+     */
+    public @Nullable <F> List<IRegionStyle<F>> styles(String text, ILanguageImpl langImpl,
+        @Nullable ILanguageImpl dialect) {
+        if(!enabled()) {
+            return null;
+        }
+
+        final File file = file(text, langImpl, dialect);
+        if(!file.exists()) {
+            return null;
+        }
+
+        final IStrategoTerm term;
+        try(final InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            term = new TermReader(termFactory).parseFromStream(stream);
+        } catch(IOException | ParseError e) {
+            logger.warn("Cannot read cached editor styling from {}, removing it", e, file);
+            remove(file);
+            return null;
+        }
+
+        final List<IRegionStyle<F>> styles = fromTerm(term, text, langImpl);
+        if(styles == null) {
+            // Hash collision or corrupt entry.
+            remove(file);
+            return null;
+        }
+        // Keep track of when entries were last used, for evicting the least recently used ones.
+        file.setLastModified(System.currentTimeMillis());
+        return styles;
+    }
+
+    /**
+     * Caches the styling of given text, unless the styling of the text was cached already.
+     *
+     * @param text
+     *            Text that was styled.
+     * @param langImpl
+     *            Language the text was parsed with.
+     * @param dialect
+     *            Dialect the text was parsed with, or null if there is no dialect.
+     * @param styles
+     *            Styling of the text.
+     */
+    public <F> void put(String text, ILanguageImpl langImpl, @Nullable ILanguageImpl dialect,
+        Iterable<IRegionStyle<F>> styles) {
+        if(!enabled()) {
+            return;
+        }
+
+        final File file = file(text, langImpl, dialect);
+        if(file.exists()) {
+            return;
+        }
+
+        final File directory = file.getParentFile();
+        final File tempFile = new File(directory, file.getName() + ".tmp");
+        try {
+            Files.createDirectories(directory.toPath());
+            try(final OutputStream stream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                SAFWriter.writeTermToSAFStream(toTerm(styles, text, langImpl), stream);
+            }
+            // Rename to make the entry visible at once, such that readers never see partially written entries.
+            if(!tempFile.renameTo(file)) {
+                remove(tempFile);
+                return;
+            }
+        } catch(IOException e) {
+            logger.warn("Cannot write cached editor styling to {}", e, file);
+            remove(tempFile);
+            return;
+        }
+
+        added(file.length());
+    }
+
+
+    @Override public void invalidateCache(ILanguageImpl impl) {
+        removeDirectory(languageDirectory(impl.id()));
+    }
+
+    @Override public void invalidateCache(ILanguageComponent component) {
+        removeDirectory(languageDirectory(component.id()));
+    }
+
+
+    private File file(String text, ILanguageImpl langImpl, @Nullable ILanguageImpl dialect) {
+        final LanguageIdentifier id = langImpl.id();
+        final File directory = languageDirectory(id);
+        removeOtherVersions(id);
+        final String dialectName = dialect != null ? dialect.id().toString() : "";
+        final String hash = Hashing.murmur3_128().newHasher().putString(text, Charsets.UTF_8).putInt(text.length())
+            .putString(dialectName, Charsets.UTF_8).hash().toString();
+        return new File(directory, hash + extension);
+    }
+
+    private static File root() {
+        return SpoofaxPlugin.plugin().getStateLocation().append("editorcache").toFile();
+    }
+
+    private static File languageDirectory(LanguageIdentifier id) {
+        return new File(new File(root(), sanitize(id.groupId + "." + id.id)), sanitize(id.version.toString()));
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+
+
+    /**
+     * Removes cached styling of other versions of given language that are no longer loaded, once per language version
+     * per session. Versions that are still loaded keep their styling, since other editors may still use them.
+     */
+    private void removeOtherVersions(LanguageIdentifier id) {
+        synchronized(checkedLanguages) {
+            if(!checkedLanguages.add(id)) {
+                return;
+            }
+        }
+        final File current = languageDirectory(id);
+        final File[] versions = current.getParentFile().listFiles();
+        if(versions == null) {
+            return;
+        }
+        final Set<File> loaded = Sets.newHashSet();
+        for(ILanguageImpl langImpl : languageService.getAllImpls()) {
+            loaded.add(languageDirectory(langImpl.id()));
+        }
+        for(File version : versions) {
+            if(!version.equals(current) && !loaded.contains(version)) {
+                logger.debug("Removing cached editor styling of stale language version {}", version);
+                removeDirectory(version);
+            }
+        }
+    }
+
+    private synchronized void added(long bytes) {
+        if(size < 0) {
+            size = 0;
+            for(File file : entries()) {
+                size += file.length();
+            }
+        } else {
+            size += bytes;
+        }
+        if(size <= maxSizeBytes) {
+            return;
+        }
+
+        final List<File> files = entries();
+        Collections.sort(files, new Comparator<File>() {
+            @Override public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        int evicted = 0;
+        for(File file : files) {
+            if(size <= maxSizeBytes) {
+                break;
+            }
+            final long length = file.length();
+            if(file.delete()) {
+                size -= length;
+                ++evicted;
+            }
+        }
+        logger.debug("Evicted {} cached editor styling entries, cache size is {} bytes", evicted, size);
+    }
+
+    /**
+     * @return All cached entries.
+     */
+    private static List<File> entries() {
+        final List<File> files = Lists.newArrayList();
+        final File root = root();
+        if(!root.exists()) {
+            return files;
+        }
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if(file.toString().endsWith(extension)) {
+                        files.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            logger.warn("Cannot list cached editor styling in {}", e, root);
+        }
+        return files;
+    }
+
+    private void remove(File file) {
+        if(!file.delete() && file.exists()) {
+            logger.debug("Cannot remove cached editor styling {}", file);
+        }
+    }
+
+    private synchronized void removeDirectory(File directory) {
+        if(!directory.exists()) {
+            return;
+        }
+        try {
+            Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+                @Override public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            logger.warn("Cannot remove cached editor styling in {}", e, directory);
+        }
+        // Recompute the size on the next addition.
+        size = -1;
+    }
+
+
+    private <F> IStrategoTerm toTerm(Iterable<IRegionStyle<F>> styles, String text, ILanguageImpl langImpl) {
+        final List<IStrategoTerm> styleTerms = Lists.newArrayList();
+        for(IRegionStyle<F> regionStyle : styles) {
+            final IStyle style = regionStyle.style();
+            int flags = 0;
+            flags |= style.bold() ? bold : 0;
+            flags |= style.italic() ? italic : 0;
+            flags |= style.underscore() ? underscore : 0;
+            flags |= style.strikeout() ? strikeout : 0;
+            flags |= style.color() != null ? hasColor : 0;
+            flags |= style.backgroundColor() != null ? hasBackgroundColor : 0;
+            final int color = style.color() != null ? style.color().getRGB() : 0;
+            final int backgroundColor = style.backgroundColor() != null ? style.backgroundColor().getRGB() : 0;
+            styleTerms.add(termFactory.makeAppl(styleConstructor,
+                termFactory.makeInt(regionStyle.region().startOffset()),
+                termFactory.makeInt(regionStyle.region().endOffset()), termFactory.makeInt(color),
+                termFactory.makeInt(backgroundColor), termFactory.makeInt(flags)));
+        }
+        return termFactory.makeAppl(stylesConstructor, termFactory.makeString(langImpl.id().toString()),
+            termFactory.makeInt(text.length()), termFactory.makeList(styleTerms));
+    }
+
+    private @Nullable <F> List<IRegionStyle<F>> fromTerm(IStrategoTerm term, String text, ILanguageImpl langImpl) {
+        if(!(term instanceof IStrategoAppl) || !((IStrategoAppl) term).getConstructor().equals(stylesConstructor)) {
+            return null;
+        }
+        final IStrategoString language = (IStrategoString) term.getSubterm(0);
+        final IStrategoInt length = (IStrategoInt) term.getSubterm(1);
+        if(!langImpl.id().toString().equals(language.stringValue()) || length.intValue() != text.length()) {
+            return null;
+        }
+
+        final List<IRegionStyle<F>> styles = Lists.newArrayList();
+        for(IStrategoTerm styleTerm : term.getSubterm(2).getAllSubterms()) {
+            final int startOffset = ((IStrategoInt) styleTerm.getSubterm(0)).intValue();
+            final int endOffset = ((IStrategoInt) styleTerm.getSubterm(1)).intValue();
+            final int color = ((IStrategoInt) styleTerm.getSubterm(2)).intValue();
+            final int backgroundColor = ((IStrategoInt) styleTerm.getSubterm(3)).intValue();
+            final int flags = ((IStrategoInt) styleTerm.getSubterm(4)).intValue();
+            final Style style = new Style((flags & hasColor) != 0 ? new Color(color, true) : null,
+                (flags & hasBackgroundColor) != 0 ? new Color(backgroundColor, true) : null, (flags & bold) != 0,
+                (flags & italic) != 0, (flags & underscore) != 0, (flags & strikeout) != 0);
+            // Styling is applied by region, the fragment that was styled is not needed.
+            styles.add(new RegionStyle<F>(new SourceRegion(startOffset, endOffset), style, null));
+        }
+        return styles;
+    }
+}
@@ -1,46 +1,52 @@
 package org.metaborg.spoofax.eclipse.editor;
 
-import java.util.Collection;
-
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.ITextPresentationListener;
 import org.eclipse.jface.text.TextPresentation;
-import org.eclipse.swt.custom.StyleRange;
-import org.metaborg.spoofax.eclipse.util.StyleUtils;
+import org.metaborg.spoofax.eclipse.util.Nullable;
 
+/**
+ * Merges the styling of the editor into text presentations created by other presentation listeners, such as those for
+ * annotations and the current line. Style ranges are kept in a {@link StyleRangeIndex}, such that merging into a small
+ * extent only visits the style ranges that overlap it.
+ */
 public class PresentationMerger implements ITextPresentationListener {
-    private volatile TextPresentation sourcePresentation;
-    private volatile Collection<StyleRange> styleRanges;
+    private volatile StyleRangeIndex index;
 
 
-    public void set(TextPresentation presentation) {
-        // Make a deep copy of style ranges to prevent sharing with other ITextPresentationListeners.
-        styleRanges = StyleUtils.deepCopies(presentation);
-        sourcePresentation = presentation;
+    /**
+     * Sets the styling to merge into other presentations. The index should be built outside of the main thread.
+     */
+    public void set(StyleRangeIndex index) {
+        this.index = index;
     }
 
     public void invalidate() {
-        sourcePresentation = null;
-        styleRanges = null;
+        index = null;
+    }
+
+    /**
+     * @return Styling that is merged into other presentations, or null if there is none.
+     */
+    public @Nullable StyleRangeIndex get() {
+        return index;
     }
 
 
     @Override public void applyTextPresentation(TextPresentation targetPresentation) {
+        final StyleRangeIndex currentIndex = index;
         // No need to apply text presentation if source and target presentation are the same object.
-        if(sourcePresentation == null || targetPresentation == sourcePresentation) {
+        if(currentIndex == null || targetPresentation == currentIndex.source()) {
             return;
         }
 
         final IRegion extent = targetPresentation.getExtent();
+        if(extent == null) {
+            return;
+        }
         final int min = extent.getOffset();
         final int max = min + extent.getLength();
-        for(StyleRange styleRange : styleRanges) {
-            final int styleRangeEnd = styleRange.start + styleRange.length;
-            // Not allowed to change style ranges outside of extent. Safe to skip since they will not be redrawn.
-            if(styleRange.start < min || styleRangeEnd > max) {
-                continue;
-            }
-            targetPresentation.mergeStyleRange(styleRange);
-        }
+        // Not allowed to change style ranges outside of extent. Safe to skip since they will not be redrawn.
+        currentIndex.merge(targetPresentation, min, max);
     }
 }
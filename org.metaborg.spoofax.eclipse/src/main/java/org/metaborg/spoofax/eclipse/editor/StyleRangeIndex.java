@@ -0,0 +1,403 @@
+package org.metaborg.spoofax.eclipse.editor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.eclipse.jface.text.TextPresentation;
+import org.eclipse.swt.custom.StyleRange;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.spoofax.eclipse.util.StyleUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable index of the non-overlapping style ranges of a text presentation, sorted by start offset and stored in
+ * primitive arrays, for the text the presentation was created for. Supports finding the style ranges in an extent in
+ * O(log n + k), computing which regions of the text changed styling between two indices, and shifting style ranges
+ * along with edits to the text. The offsets of the stored style range objects are not used, such that shifting does
+ * not need to copy them.
+ */
+public class StyleRangeIndex {
+    /**
+     * Damage regions closer together than this number of characters are merged into one region.
+     */
+    private static final int mergeDistance = 256;
+    /**
+     * Maximum number of damage regions; when there are more, the entire presentation should be replaced instead.
+     */
+    private static final int maxDamageRegions = 64;
+
+    private final TextPresentation source;
+    private final @Nullable String text;
+    private final @Nullable StyleRange defaultStyleRange;
+    private final int[] starts;
+    private final int[] ends;
+    private final StyleRange[] styleRanges;
+
+
+    /**
+     * Creates an index for given presentation. Style ranges are deep copied to prevent sharing them with other
+     * presentation listeners.
+     *
+     * @param source
+     *            Presentation to index.
+     * @param text
+     *            Text the presentation was created for.
+     */
+    public StyleRangeIndex(TextPresentation source, String text) {
+        this.source = source;
+        this.text = text;
+        this.defaultStyleRange = source.getDefaultStyleRange();
+
+        final int size = source.getDenumerableRanges();
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        StyleRange[] styleRanges = new StyleRange[size];
+        int count = 0;
+        for(Iterator<StyleRange> iter = source.getNonDefaultStyleRangeIterator(); iter.hasNext();) {
+            final StyleRange styleRange = iter.next();
+            if(count == styleRanges.length) {
+                final int newSize = Math.max(16, count * 2);
+                starts = Arrays.copyOf(starts, newSize);
+                ends = Arrays.copyOf(ends, newSize);
+                styleRanges = Arrays.copyOf(styleRanges, newSize);
+            }
+            styleRanges[count] = StyleUtils.deepCopy(styleRange);
+            starts[count] = styleRange.start;
+            ends[count] = styleRange.start + styleRange.length;
+            ++count;
+        }
+        this.starts = count == starts.length ? starts : Arrays.copyOf(starts, count);
+        this.ends = count == ends.length ? ends : Arrays.copyOf(ends, count);
+        this.styleRanges = count == styleRanges.length ? styleRanges : Arrays.copyOf(styleRanges, count);
+    }
+
+    private StyleRangeIndex(TextPresentation source, @Nullable String text, @Nullable StyleRange defaultStyleRange,
+        int[] starts, int[] ends, StyleRange[] styleRanges) {
+        this.source = source;
+        this.text = text;
+        this.defaultStyleRange = defaultStyleRange;
+        this.starts = starts;
+        this.ends = ends;
+        this.styleRanges = styleRanges;
+    }
+
+
+    /**
+     * @return Presentation this index was created from.
+     */
+    public TextPresentation source() {
+        return source;
+    }
+
+    /**
+     * @return Text the presentation was created for, or null if the text is unknown because style ranges were shifted.
+     */
+    public @Nullable String text() {
+        return text;
+    }
+
+    /**
+     * @return Number of style ranges.
+     */
+    public int size() {
+        return starts.length;
+    }
+
+
+    /**
+     * Merges style ranges that lie entirely within [min, max) into given presentation.
+     */
+    public void merge(TextPresentation target, int min, int max) {
+        // Style ranges are non-overlapping, so their end offsets are sorted as well.
+        for(int i = firstStartingAt(min); i < starts.length; ++i) {
+            if(ends[i] > max) {
+                // All further style ranges start at or after this end offset, and end outside of the extent.
+                break;
+            }
+            target.mergeStyleRange(styleRange(i));
+        }
+    }
+
+    /**
+     * Creates a presentation that replaces all styling in given region, with the style ranges that lie entirely within
+     * that region.
+     *
+     * @param region
+     *            Region to create the presentation for.
+     * @return Presentation for the region.
+     */
+    public TextPresentation presentation(IRegion region) {
+        final int min = region.getOffset();
+        final int max = min + region.getLength();
+        final int first = firstStartingAt(min);
+        int last = first;
+        while(last < starts.length && ends[last] <= max) {
+            ++last;
+        }
+
+        final TextPresentation presentation = new TextPresentation(region, last - first);
+        if(defaultStyleRange != null) {
+            final StyleRange regionDefaultStyleRange = (StyleRange) defaultStyleRange.clone();
+            regionDefaultStyleRange.start = min;
+            regionDefaultStyleRange.length = max - min;
+            presentation.setDefaultStyleRange(regionDefaultStyleRange);
+        }
+        for(int i = first; i < last; ++i) {
+            presentation.addStyleRange(styleRange(i));
+        }
+        return presentation;
+    }
+
+
+    /**
+     * Creates an index with the style ranges of this index shifted along with given edit. Style ranges before the edit
+     * are kept, style ranges after the edit are moved by the length difference of the edit, style ranges that contain
+     * the edit grow or shrink with it, style ranges that partially overlap the removed text are truncated, and style
+     * ranges inside the removed text are dropped.
+     *
+     * @param edit
+     *            Edit made to the text.
+     * @return Index with shifted style ranges, for an unknown text.
+     */
+    public StyleRangeIndex shift(DocumentEdit edit) {
+        final int editStart = edit.offset;
+        final int removedEnd = editStart + edit.removedLength;
+        final int insertedEnd = editStart + edit.insertedLength();
+        final int delta = edit.delta();
+
+        final int size = starts.length;
+        final int[] newStarts = new int[size];
+        final int[] newEnds = new int[size];
+        final StyleRange[] newStyleRanges = new StyleRange[size];
+
+        // Style ranges that end at or before the start of the edit are not affected.
+        final int first = firstEndingAfter(editStart);
+        System.arraycopy(starts, 0, newStarts, 0, first);
+        System.arraycopy(ends, 0, newEnds, 0, first);
+        System.arraycopy(styleRanges, 0, newStyleRanges, 0, first);
+        int count = first;
+        for(int i = first; i < size; ++i) {
+            final int start = starts[i];
+            final int end = ends[i];
+            final int newStart;
+            final int newEnd;
+            if(start >= removedEnd) {
+                newStart = start + delta;
+                newEnd = end + delta;
+            } else if(start < editStart) {
+                newStart = start;
+                newEnd = end > removedEnd ? end + delta : editStart;
+            } else {
+                newStart = insertedEnd;
+                newEnd = end > removedEnd ? end + delta : insertedEnd;
+            }
+            if(newEnd <= newStart) {
+                continue;
+            }
+            newStarts[count] = newStart;
+            newEnds[count] = newEnd;
+            newStyleRanges[count] = styleRanges[i];
+            ++count;
+        }
+
+        StyleRange newDefaultStyleRange = defaultStyleRange;
+        if(defaultStyleRange != null) {
+            newDefaultStyleRange = (StyleRange) defaultStyleRange.clone();
+            final int defaultEnd = defaultStyleRange.start + defaultStyleRange.length;
+            newDefaultStyleRange.start = edit.shift(defaultStyleRange.start);
+            newDefaultStyleRange.length = Math.max(0, edit.shift(defaultEnd) - newDefaultStyleRange.start);
+        }
+
+        return new StyleRangeIndex(source, null, newDefaultStyleRange,
+            count == size ? newStarts : Arrays.copyOf(newStarts, count),
+            count == size ? newEnds : Arrays.copyOf(newEnds, count),
+            count == size ? newStyleRanges : Arrays.copyOf(newStyleRanges, count));
+    }
+
+
+    /**
+     * Computes the regions in which the styling of given current index differs from the styling of given previous
+     * index. Style ranges of the previous index are aligned with the current text using the common prefix and suffix
+     * of both texts, and the changed part of the text in between is always damaged.
+     *
+     * @param previous
+     *            Index of the styling that was previously applied.
+     * @param current
+     *            Index of the new styling.
+     * @return Damaged regions in the current text, sorted by offset, or null if the styling changed in so many places
+     *         that the entire presentation should be replaced, or if the text of either index is unknown.
+     */
+    public static @Nullable List<IRegion> damage(StyleRangeIndex previous, StyleRangeIndex current) {
+        final String oldText = previous.text;
+        final String newText = current.text;
+        if(oldText == null || newText == null) {
+            return null;
+        }
+        final int oldLength = oldText.length();
+        final int newLength = newText.length();
+        final int maxCommon = Math.min(oldLength, newLength);
+
+        int prefix = 0;
+        while(prefix < maxCommon && oldText.charAt(prefix) == newText.charAt(prefix)) {
+            ++prefix;
+        }
+        int suffix = 0;
+        while(suffix < maxCommon - prefix
+            && oldText.charAt(oldLength - suffix - 1) == newText.charAt(newLength - suffix - 1)) {
+            ++suffix;
+        }
+        final int oldSuffixStart = oldLength - suffix;
+        final int delta = newLength - oldLength;
+
+        final DamageCollector damage = new DamageCollector();
+        if(prefix < newLength - suffix || prefix < oldSuffixStart) {
+            damage.add(prefix, newLength - suffix);
+        }
+
+        int i = 0;
+        int j = 0;
+        while(i < previous.starts.length || j < current.starts.length) {
+            if(damage.exceeded()) {
+                return null;
+            }
+
+            // Map style range of the previous text to the current text, skipping ranges in the changed part.
+            final int oldStart;
+            final int oldEnd;
+            if(i < previous.starts.length) {
+                final int start = previous.starts[i];
+                final int end = previous.ends[i];
+                if(end <= prefix) {
+                    oldStart = start;
+                    oldEnd = end;
+                } else if(start >= oldSuffixStart) {
+                    oldStart = start + delta;
+                    oldEnd = end + delta;
+                } else {
+                    ++i;
+                    continue;
+                }
+            } else {
+                oldStart = Integer.MAX_VALUE;
+                oldEnd = Integer.MAX_VALUE;
+            }
+            final int newStart = j < current.starts.length ? current.starts[j] : Integer.MAX_VALUE;
+            final int newEnd = j < current.starts.length ? current.ends[j] : Integer.MAX_VALUE;
+
+            if(oldStart == newStart && oldEnd == newEnd
+                && previous.styleRanges[i].similarTo(current.styleRanges[j])) {
+                ++i;
+                ++j;
+            } else if(oldStart <= newStart) {
+                damage.add(oldStart, oldEnd);
+                ++i;
+            } else {
+                damage.add(newStart, newEnd);
+                ++j;
+            }
+        }
+
+        if(damage.exceeded()) {
+            return null;
+        }
+        return damage.regions();
+    }
+
+
+    private StyleRange styleRange(int i) {
+        final StyleRange styleRange = StyleUtils.deepCopy(styleRanges[i]);
+        styleRange.start = starts[i];
+        styleRange.length = ends[i] - starts[i];
+        return styleRange;
+    }
+
+    private int firstEndingAfter(int offset) {
+        int low = 0;
+        int high = ends.length;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(ends[mid] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int firstStartingAt(int offset) {
+        int low = 0;
+        int high = starts.length;
+        while(low < high) {
+            final int mid = (low + high) >>> 1;
+            if(starts[mid] < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+
+    /**
+     * Collects damaged spans, merging spans that overlap or are close together. Spans must be added roughly in order
+     * of their start offset; the changed part of the text may be added first.
+     */
+    private static final class DamageCollector {
+        private final List<int[]> spans = Lists.newArrayList();
+
+
+        public void add(int start, int end) {
+            for(int[] span : spans) {
+                if(start <= span[1] + mergeDistance && end + mergeDistance >= span[0]) {
+                    span[0] = Math.min(span[0], start);
+                    span[1] = Math.max(span[1], end);
+                    return;
+                }
+            }
+            spans.add(new int[] { start, end });
+        }
+
+        public boolean exceeded() {
+            return spans.size() > maxDamageRegions;
+        }
+
+        public List<IRegion> regions() {
+            // Merging a span may have made it overlap with spans that were added earlier; sort and merge again.
+            final List<int[]> sorted = Lists.newArrayList(spans);
+            Collections.sort(sorted, new Comparator<int[]>() {
+                @Override public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+            final List<IRegion> regions = Lists.newArrayListWithCapacity(sorted.size());
+            int start = -1;
+            int end = -1;
+            for(int[] span : sorted) {
+                if(span[0] >= span[1]) {
+                    continue;
+                }
+                if(start >= 0 && span[0] <= end + mergeDistance) {
+                    end = Math.max(end, span[1]);
+                    continue;
+                }
+                if(start >= 0) {
+                    regions.add(new Region(start, end - start));
+                }
+                start = span[0];
+                end = span[1];
+            }
+            if(start >= 0) {
+                regions.add(new Region(start, end - start));
+            }
+            return regions;
+        }
+    }
+}
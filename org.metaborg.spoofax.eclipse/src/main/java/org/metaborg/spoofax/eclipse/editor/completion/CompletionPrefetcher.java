@@ -0,0 +1,239 @@
+package org.metaborg.spoofax.eclipse.editor.completion;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.Job;
+import org.metaborg.core.MetaborgException;
+import org.metaborg.core.completion.ICompletion;
+import org.metaborg.core.completion.ICompletionService;
+import org.metaborg.core.style.IRegionCategory;
+import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.spoofax.core.unit.ISpoofaxParseUnit;
+import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
+import org.metaborg.spoofax.eclipse.SpoofaxPreferences;
+import org.metaborg.spoofax.eclipse.editor.IEditorUpdateTarget;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.spoofax.eclipse.util.StatusUtils;
+import org.metaborg.util.log.ILogger;
+import org.metaborg.util.log.LoggerUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Computes completions of a document ahead of time, such that content assist can show them without waiting for the
+ * completion strategies. After a successful parse, a low priority job computes completions at the caret, and at the
+ * trigger points closest to the caret: the offsets right after keywords and operators, which are taken from the token
+ * categories that were computed for styling. Completions are only kept for the latest document version, and the job
+ * stops before the next offset as soon as the document changes or the job is cancelled. Only prefetches when enabled in
+ * the {@link SpoofaxPreferences}.
+ */
+public class CompletionPrefetcher<P extends IParseUnit, F> {
+    private static final ILogger logger = LoggerUtils.logger(CompletionPrefetcher.class);
+    /**
+     * Time to wait after parsing before prefetching, to let the remaining update stages and typing go first.
+     */
+    private static final long idleDelayMs = 500;
+    /**
+     * Maximum number of trigger points to prefetch completions at, besides the caret.
+     */
+    private static final int maxTriggerPoints = 8;
+
+
+    /**
+     * Completions prefetched from a version of the document, by offset.
+     */
+    private static class Prefetched {
+        public final long documentVersion;
+        public final ConcurrentMap<Integer, Iterable<ICompletion>> completions = Maps.newConcurrentMap();
+
+
+        public Prefetched(long documentVersion) {
+            this.documentVersion = documentVersion;
+        }
+    }
+
+
+    private final ICompletionService<ISpoofaxParseUnit> completionService;
+    private final SpoofaxPreferences preferences;
+    private final IEditorUpdateTarget<F> target;
+    private final String name;
+
+    private volatile @Nullable Prefetched prefetched;
+    private @Nullable PrefetchJob job;
+
+
+    public CompletionPrefetcher(SpoofaxPreferences preferences, IEditorUpdateTarget<F> target, String name) {
+        this.completionService = SpoofaxPlugin.spoofax().completionService;
+        this.preferences = preferences;
+        this.target = target;
+        this.name = name;
+    }
+
+
+    /**
+     * Schedules prefetching completions on given parse result, replacing the completions prefetched from previous
+     * versions of the document. Does nothing if prefetching is disabled.
+     *
+     * @param parseResult
+     *            Successful parse result of the text of the document.
+     * @param triggerOffsets
+     *            Offsets of the text to prefetch completions at besides the caret, see
+     *            {@link #triggerOffsets(Iterable)}.
+     * @param documentVersion
+     *            Version of the document the text was taken from.
+     * @param caretOffset
+     *            Offset of the caret, or -1 if it is unknown, in which case nothing is prefetched.
+     */
+    public synchronized void prefetch(P parseResult, Collection<Integer> triggerOffsets, long documentVersion,
+        int caretOffset) {
+        if(job != null) {
+            job.cancel();
+            job = null;
+        }
+        if(!preferences.prefetchCompletions() || caretOffset < 0) {
+            prefetched = null;
+            return;
+        }
+        prefetched = new Prefetched(documentVersion);
+        job = new PrefetchJob(parseResult, triggerOffsets, documentVersion, caretOffset);
+        job.schedule(idleDelayMs);
+    }
+
+    /**
+     * @return Completions prefetched at given offset of given document version, or null if they were not prefetched.
+     */
+    public @Nullable Iterable<ICompletion> get(long documentVersion, int offset) {
+        final Prefetched prefetched = this.prefetched;
+        if(prefetched == null || prefetched.documentVersion != documentVersion) {
+            return null;
+        }
+        return prefetched.completions.get(offset);
+    }
+
+    /**
+     * Stops prefetching and forgets all prefetched completions.
+     */
+    public synchronized void dispose() {
+        if(job != null) {
+            job.cancel();
+            job = null;
+        }
+        prefetched = null;
+    }
+
+
+    /**
+     * @return Offsets right after keywords and operators in given token categories, at which completion is likely to
+     *         be requested.
+     */
+    public static Set<Integer> triggerOffsets(Iterable<? extends IRegionCategory<?>> categories) {
+        final Set<Integer> offsets = Sets.newHashSet();
+        for(IRegionCategory<?> regionCategory : categories) {
+            final String category = regionCategory.category().name().toLowerCase();
+            if(category.contains("keyword") || category.contains("operator")) {
+                offsets.add(regionCategory.region().endOffset() + 1);
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * @return Trigger offsets closest to given caret offset first, excluding the caret offset itself.
+     */
+    private static List<Integer> triggerPoints(Collection<Integer> triggerOffsets, final int caretOffset) {
+        final Set<Integer> offsets = Sets.newHashSet(triggerOffsets);
+        offsets.remove(caretOffset);
+
+        final List<Integer> triggerPoints = Lists.newArrayList(offsets);
+        Collections.sort(triggerPoints, new Comparator<Integer>() {
+            @Override public int compare(Integer o1, Integer o2) {
+                return Integer.compare(Math.abs(o1 - caretOffset), Math.abs(o2 - caretOffset));
+            }
+        });
+        return triggerPoints.subList(0, Math.min(maxTriggerPoints, triggerPoints.size()));
+    }
+
+
+    private class PrefetchJob extends Job {
+        private final P parseResult;
+        private final Collection<Integer> triggerOffsets;
+        private final long documentVersion;
+        private final int caretOffset;
+
+
+        public PrefetchJob(P parseResult, Collection<Integer> triggerOffsets, long documentVersion,
+            int caretOffset) {
+            super("Prefetching completions for " + name);
+            setSystem(true);
+            setPriority(Job.DECORATE);
+
+            this.parseResult = parseResult;
+            this.triggerOffsets = triggerOffsets;
+            this.documentVersion = documentVersion;
+            this.caretOffset = caretOffset;
+        }
+
+
+        @Override protected IStatus run(IProgressMonitor monitor) {
+            try {
+                final Prefetched prefetched = CompletionPrefetcher.this.prefetched;
+                if(prefetched == null || prefetched.documentVersion != documentVersion) {
+                    return StatusUtils.cancel();
+                }
+
+                final long startNs = System.nanoTime();
+                if(!prefetch(prefetched, caretOffset, monitor)) {
+                    return StatusUtils.cancel();
+                }
+                final List<Integer> triggerPoints = triggerPoints(triggerOffsets, caretOffset);
+                for(int offset : triggerPoints) {
+                    if(!prefetch(prefetched, offset, monitor)) {
+                        return StatusUtils.cancel();
+                    }
+                }
+                logger.trace("Prefetched completions for {} at offset {} and {} trigger point(s) in {}ms", name,
+                    caretOffset, triggerPoints.size(), (System.nanoTime() - startNs) / 1000000);
+            } catch(RuntimeException e) {
+                if(monitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                final String message = logger.format("Prefetching completions for {} failed", name);
+                logger.error(message, e);
+                return StatusUtils.silentError(message, e);
+            }
+            return StatusUtils.success();
+        }
+
+
+        /**
+         * Prefetches completions at given offset.
+         *
+         * @return False if prefetching must stop, because it was cancelled or the document changed.
+         */
+        private boolean prefetch(Prefetched prefetched, int offset, IProgressMonitor monitor) {
+            if(monitor.isCanceled() || target.documentVersion() != documentVersion) {
+                return false;
+            }
+            if(prefetched.completions.containsKey(offset)) {
+                return true;
+            }
+            try {
+                final Iterable<ICompletion> completions =
+                    completionService.get(offset, (ISpoofaxParseUnit) parseResult, false);
+                prefetched.completions.put(offset, completions);
+            } catch(MetaborgException e) {
+                logger.debug("Prefetching completions for {} at offset {} failed", e, name, offset);
+            }
+            return true;
+        }
+    }
+}
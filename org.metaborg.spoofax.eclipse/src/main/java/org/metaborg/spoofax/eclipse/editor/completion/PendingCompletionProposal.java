@@ -0,0 +1,56 @@
+package org.metaborg.spoofax.eclipse.editor.completion;
+
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
+import org.eclipse.jface.text.contentassist.IContextInformation;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
+
+/**
+ * Proposal that indicates that proposals are still being computed. Applying it does nothing, and it stays valid while
+ * typing such that the popup stays open until the computed proposals arrive.
+ */
+public class PendingCompletionProposal implements ICompletionProposal, ICompletionProposalExtension2 {
+    @Override public void apply(IDocument document) {
+
+    }
+
+    @Override public void apply(ITextViewer viewer, char trigger, int stateMask, int offset) {
+
+    }
+
+    @Override public boolean validate(IDocument document, int offset, DocumentEvent event) {
+        return true;
+    }
+
+    @Override public void selected(ITextViewer viewer, boolean smartToggle) {
+
+    }
+
+    @Override public void unselected(ITextViewer viewer) {
+
+    }
+
+    @Override public Point getSelection(IDocument document) {
+        return null;
+    }
+
+    @Override public String getAdditionalProposalInfo() {
+        return null;
+    }
+
+    @Override public String getDisplayString() {
+        return "Computing proposals...";
+    }
+
+    @Override public Image getImage() {
+        return null;
+    }
+
+    @Override public IContextInformation getContextInformation() {
+        return null;
+    }
+}
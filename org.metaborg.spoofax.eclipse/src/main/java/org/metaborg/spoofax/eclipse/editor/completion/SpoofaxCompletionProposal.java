@@ -9,10 +9,12 @@ import org.apache.commons.lang3.SerializationUtils;
 import org.apache.commons.vfs2.FileObject;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IInformationControlCreator;
 import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
 import org.eclipse.jface.text.contentassist.ICompletionProposalExtension3;
 import org.eclipse.jface.text.contentassist.ICompletionProposalExtension5;
 import org.eclipse.jface.text.contentassist.IContextInformation;
@@ -29,15 +31,21 @@ import org.metaborg.core.completion.ICompletionItem;
 import org.metaborg.core.completion.ICompletionService;
 import org.metaborg.core.completion.IPlaceholderCompletionItem;
 import org.metaborg.core.language.ILanguageImpl;
+import org.metaborg.core.source.ISourceLocation;
 import org.metaborg.core.syntax.ISyntaxService;
+import org.metaborg.core.syntax.ParseException;
 import org.metaborg.core.tracing.ITracingService;
 import org.metaborg.core.unit.IInputUnitService;
 import org.metaborg.spoofax.core.completion.PlaceholderCompletionItem;
+import org.metaborg.spoofax.core.syntax.JSGLRParserConfiguration;
 import org.metaborg.spoofax.core.unit.ISpoofaxAnalyzeUnit;
 import org.metaborg.spoofax.core.unit.ISpoofaxInputUnit;
+import org.metaborg.spoofax.core.unit.ISpoofaxInputUnitService;
 import org.metaborg.spoofax.core.unit.ISpoofaxParseUnit;
 import org.metaborg.spoofax.core.unit.ISpoofaxTransformUnit;
 import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
+import org.metaborg.spoofax.eclipse.editor.EditorUpdatePipeline;
+import org.metaborg.spoofax.eclipse.util.Nullable;
 import org.metaborg.util.log.ILogger;
 import org.metaborg.util.log.LoggerUtils;
 import org.spoofax.interpreter.terms.IStrategoAppl;
@@ -51,8 +59,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.io.BaseEncoding;
 
-public class SpoofaxCompletionProposal
-    implements ICompletionProposal, ICompletionProposalExtension3, ICompletionProposalExtension5 {
+public class SpoofaxCompletionProposal implements ICompletionProposal, ICompletionProposalExtension2,
+    ICompletionProposalExtension3, ICompletionProposalExtension5 {
     private static class CompletionData {
         public final String text;
         public final Multimap<String, ProposalPosition> placeholders;
@@ -61,9 +69,8 @@ public class SpoofaxCompletionProposal
         public int finalSequence = 0;
 
 
-        public CompletionData(IDocument document, String text, ITextViewer viewer, int offset, ICompletion completion,
-            ICompletionService<ISpoofaxParseUnit> completionService, ISpoofaxParseUnit parseResult,
-            IInformationControlCreator informationControlCreator) {
+        public CompletionData(IDocument document, String text, int offset, int cursorPosition, ICompletion completion,
+            SpoofaxCompletionProposal proposal) {
             placeholders = ArrayListMultimap.create();
             this.text = text;
 
@@ -89,48 +96,52 @@ public class SpoofaxCompletionProposal
 
                     final int placeholderLenght = (placeholderItem.endOffset() != placeholderItem.startOffset())
                         ? placeholderItem.endOffset() - placeholderItem.startOffset() + 1 : 0;
-                    final int cursorPosition = (placeholderItem.endOffset() != placeholderItem.startOffset())
-                        ? placeholderItem.startOffset() + 1 : placeholderItem.startOffset();
 
-                    final ProposalPosition position =
-                        new ProposalPosition(document, placeholderItem.startOffset(), placeholderLenght,
-                            (sequenceNumber < sequenceSize) ? sequenceNumber++ : 0, getProposals(completionService,
-                                parseResult, viewer, informationControlCreator, cursorPosition, placeholderItem));
+                    final ProposalPosition position = proposal.new PlaceholderPosition(document,
+                        placeholderItem.startOffset(), placeholderLenght,
+                        (sequenceNumber < sequenceSize) ? sequenceNumber++ : 0, placeholderItem);
                     placeholders.put(name, position);
                 }
             }
 
             cursorSequence = finalSequence;
-            cursorPosition = 0;
+            this.cursorPosition = cursorPosition;
 
         }
+    }
 
-        private ICompletionProposal[] getProposals(ICompletionService<ISpoofaxParseUnit> completionService,
-            ISpoofaxParseUnit parseResult, ITextViewer viewer, IInformationControlCreator informationControlCreator,
-            int offset, IPlaceholderCompletionItem placeholderItem) {
-            // call the completion proposer to calculate the proposals
-            final Iterable<ICompletion> completions;
-            try {
-                completions = completionService.get(offset, parseResult, true);
-            } catch(MetaborgException e) {
-                return null;
-            }
+    /**
+     * Position of a placeholder in linked mode, which computes its nested proposals when linked mode enters the
+     * placeholder, instead of computing the nested proposals of all placeholders when the completion is applied.
+     */
+    private class PlaceholderPosition extends ProposalPosition {
+        private final IPlaceholderCompletionItem placeholderItem;
+        private ICompletionProposal[] choices;
 
-            final int numCompletions = Iterables.size(completions);
-            final ICompletionProposal[] proposals = new ICompletionProposal[numCompletions];
-            int i = 0;
-            for(ICompletion completion : completions) {
-                completion.setNested(true);
-                completion.setOptionalPlaceholder(placeholderItem.optional());
-                proposals[i] = new SpoofaxCompletionProposal(viewer, offset, completion, parseResult.source(),
-                    parseResult.input().langImpl(), informationControlCreator);
-                ++i;
-            }
-            return proposals;
+
+        public PlaceholderPosition(IDocument document, int offset, int length, int sequence,
+            IPlaceholderCompletionItem placeholderItem) {
+            super(document, offset, length, sequence, null);
+            this.placeholderItem = placeholderItem;
         }
 
+
+        @Override public ICompletionProposal[] getChoices() {
+            if(choices == null) {
+                final int cursorPosition = getLength() != 0 ? getOffset() + 1 : getOffset();
+                choices = nestedProposals(getDocument(), cursorPosition, placeholderItem);
+            }
+            return choices.clone();
+        }
     }
 
+
+    /**
+     * Placeholders in completion texts, printed in the default placeholder syntax of SDF3: {@code $Sort}. Only used
+     * when the completion text cannot be parsed.
+     */
+    private static final Pattern placeholderPattern = Pattern.compile("\\$([A-Z][A-Za-z0-9\\-]*)");
+
     private static final ILogger logger = LoggerUtils.logger(SpoofaxCompletionProposal.class);
     private final ITextViewer textViewer;
     private int offset;
@@ -144,6 +155,8 @@ public class SpoofaxCompletionProposal
     private final IInformationControlCreator informationControlCreator;
 
     private CompletionData data;
+    private String parsedText;
+    private ISpoofaxParseUnit parsed;
 
     public SpoofaxCompletionProposal(ITextViewer textViewer, int offset, ICompletion completion, FileObject source,
         ILanguageImpl language, IInformationControlCreator informationControlCreator) {
@@ -160,6 +173,59 @@ public class SpoofaxCompletionProposal
     }
 
     @Override public void apply(IDocument document) {
+        apply(document, 0);
+    }
+
+    @Override public void apply(ITextViewer viewer, char trigger, int stateMask, int offset) {
+        // Text may have been typed since the proposals were computed, which extends the region to replace.
+        apply(viewer.getDocument(), Math.max(0, offset - this.offset));
+    }
+
+    /**
+     * Returns if this proposal still applies after the document was changed while the proposal popup is open, such that
+     * the popup narrows down the computed proposals instead of computing new ones. A proposal applies while the text
+     * between the start of its completion region and given offset is a prefix of the completion.
+     */
+    @Override public boolean validate(IDocument document, int offset, DocumentEvent event) {
+        final int startOffset = regionStart();
+        if(offset < startOffset) {
+            // Left the original completion region.
+            return false;
+        }
+        final String prefix;
+        try {
+            prefix = document.get(startOffset, offset - startOffset).trim();
+        } catch(BadLocationException e) {
+            return false;
+        }
+        if(prefix.isEmpty()) {
+            return true;
+        }
+        return startsWithIgnoreCase(completion.text().replace("##CURSOR##", "").trim(), prefix)
+            || startsWithIgnoreCase(getDisplayString().trim(), prefix);
+    }
+
+    @Override public void selected(ITextViewer viewer, boolean smartToggle) {
+
+    }
+
+    @Override public void unselected(ITextViewer viewer) {
+
+    }
+
+    private int regionStart() {
+        if(completion.isNested() && !completion.fromOptionalPlaceholder()) {
+            // Nested completions replace the selected placeholder, which starts at the offset of the proposal.
+            return offset;
+        }
+        return completion.startOffset();
+    }
+
+    private static boolean startsWithIgnoreCase(String text, String prefix) {
+        return text.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private void apply(IDocument document, int typedLength) {
 
         int startOffset;
         int endOffset;
@@ -172,44 +238,24 @@ public class SpoofaxCompletionProposal
             offset = startOffset;
         } else { // if not nested, then replace with the completion offsets
             startOffset = completion.startOffset();
-            endOffset = completion.endOffset();
-        }
-
-        // final text after applying completions
-        String finalText = document.get().substring(0, startOffset);
-        finalText += completion.text().replace("##CURSOR##", "");
-        String beforeCursorText = trimTrailing(finalText);
-        endingCursorOffset = beforeCursorText.length();
-        finalText += document.get().substring(endOffset);
-
-        // re-parse to get the new AST to calculate nested completions
-        ISpoofaxParseUnit completedParseResult = null;
-
-        try {
-            final ISpoofaxInputUnit input = unitService.inputUnit(source, finalText, language, null);
-            completedParseResult = syntaxService.parse(input);
-            if (completedParseResult == null || completedParseResult.ast() == null){
-                throw new Exception("Could not parse completed text: \n\n" + finalText);
-            }            
-        } catch(Exception e1) {
-            e1.printStackTrace();
+            endOffset = completion.endOffset() + typedLength;
         }
 
-        
-        
-        
-
+        // Only replace the completion region, such that the rest of the document, its markers, and its undo history
+        // are left alone. Text before the region is unchanged, so offsets in the inserted text are relative to the
+        // start offset in the completed document.
+        final String insertedText = completion.text().replace("##CURSOR##", "");
+        endingCursorOffset = startOffset + trimTrailing(insertedText).length();
 
-        Collection<ICompletionItem> completionItems = createItemsFromAST(completedParseResult);
+        Collection<ICompletionItem> completionItems = createItemsFromText(insertedText, startOffset);
         completionItems.addAll(createOptionalItemsFromText(completion.text(), startOffset));
 
         completion.setItems(completionItems);
 
-        this.data = new CompletionData(document, finalText, textViewer, startOffset, completion, completionService,
-            completedParseResult, informationControlCreator);
+        this.data = new CompletionData(document, insertedText, startOffset, endingCursorOffset, completion, this);
 
         try {
-            document.replace(0, document.getLength(), finalText);
+            document.replace(startOffset, endOffset - startOffset, insertedText);
 
             if(!data.placeholders.isEmpty()) {
                 final LinkedModeModel model = new LinkedModeModel();
@@ -259,43 +305,144 @@ public class SpoofaxCompletionProposal
         return result;
     }
 
-    private Collection<ICompletionItem> createItemsFromAST(ISpoofaxParseUnit completedParseResult) {
+    /**
+     * Finds the placeholders in the inserted text of a completion, instead of parsing the entire completed document and
+     * searching its AST for placeholder terms. The inserted text is parsed on its own, with the sort of the completion
+     * as start symbol. When that fails, the text is searched for placeholders in the default placeholder syntax.
+     *
+     * @param text
+     *            Inserted text, without cursor markers.
+     * @param startOffset
+     *            Offset in the document where the text is inserted.
+     * @return Placeholder items, with offsets in the completed document and an inclusive end offset.
+     */
+    private Collection<ICompletionItem> createItemsFromText(String text, int startOffset) {
+        final ISpoofaxParseUnit fragmentParseResult = parseFragment(text);
+        if(fragmentParseResult != null) {
+            return createItemsFromAST(fragmentParseResult, startOffset);
+        }
 
+        final Collection<ICompletionItem> result = new LinkedList<ICompletionItem>();
+        final Matcher matcher = placeholderPattern.matcher(text);
+        while(matcher.find()) {
+            final String placeholderName = matcher.group(1);
+            result.add(new PlaceholderCompletionItem(placeholderName, startOffset + matcher.start(),
+                startOffset + matcher.end() - 1, false));
+        }
+        return result;
+    }
 
+    private @Nullable ISpoofaxParseUnit parseFragment(String text) {
+        if(text.trim().isEmpty() || completion.sort() == null) {
+            return null;
+        }
+        try {
+            final JSGLRParserConfiguration config =
+                new JSGLRParserConfiguration(true, false, false, 3000, Integer.MAX_VALUE, completion.sort());
+            final ISpoofaxInputUnit input =
+                ((ISpoofaxInputUnitService) unitService).inputUnit(text, language, null, config);
+            final ISpoofaxParseUnit parseResult = syntaxService.parse(input);
+            if(!parseResult.valid() || parseResult.ast() == null) {
+                logger.trace("Cannot parse completion text as {}, searching it for placeholders instead",
+                    completion.sort());
+                return null;
+            }
+            return parseResult;
+        } catch(ParseException | RuntimeException e) {
+            logger.trace("Cannot parse completion text as {}, searching it for placeholders instead", e,
+                completion.sort());
+            return null;
+        }
+    }
+
+    private Collection<ICompletionItem> createItemsFromAST(ISpoofaxParseUnit fragmentParseResult,
+        final int startOffset) {
         final Collection<ICompletionItem> result = new LinkedList<ICompletionItem>();
-        IStrategoTerm ast = completedParseResult.ast();
-        
-        
         final IStrategoTermVisitor visitor = new AStrategoTermVisitor() {
-
             @Override public boolean visit(IStrategoTerm term) {
-                int startOffset = tracingService.location(term).region().startOffset();
-                int endOffset = tracingService.location(term).region().endOffset();
-
                 // if it is a placeholder (check constructor)
                 if(term instanceof IStrategoAppl) {
-                    String constructor = ((IStrategoAppl) term).getConstructor().getName();
-
-                    if(constructor.contains("-Plhdr")) {
-                        String placeholderName = constructor.substring(0, constructor.length() - 6);
-                        result.add(new PlaceholderCompletionItem(placeholderName, startOffset, endOffset, false));
-                    } // else if(startOffset > endOffset) { // optional
-                      // result.add(new PlaceholderCompletionItem("", startOffset, startOffset, true));
-                      // }
+                    final String constructor = ((IStrategoAppl) term).getConstructor().getName();
+                    if(constructor.endsWith("-Plhdr")) {
+                        final ISourceLocation location = tracingService.location(term);
+                        if(location != null) {
+                            final String placeholderName = constructor.substring(0, constructor.length() - 6);
+                            result.add(new PlaceholderCompletionItem(placeholderName,
+                                startOffset + location.region().startOffset(),
+                                startOffset + location.region().endOffset(), false));
+                        }
+                    }
+                }
+                return true;
+            }
+        };
+        StrategoTermVisitee.topdown(visitor, fragmentParseResult.ast());
+        return result;
+    }
 
+    /**
+     * Computes the nested proposals of a placeholder in the completed document.
+     */
+    private ICompletionProposal[] nestedProposals(IDocument document, int offset,
+        IPlaceholderCompletionItem placeholderItem) {
+        final ISpoofaxParseUnit parseResult = parseResult(document);
+        if(parseResult == null) {
+            return new ICompletionProposal[0];
+        }
 
-                } // else if(startOffset > endOffset) { // empty list
-                  // result.add(new PlaceholderCompletionItem("", startOffset, startOffset, true));
-                  // }
+        // call the completion proposer to calculate the proposals
+        final Iterable<ICompletion> completions;
+        try {
+            completions = completionService.get(offset, parseResult, true);
+        } catch(MetaborgException e) {
+            logger.error("Stratego completions framework failed at offset {}", e, offset);
+            return new ICompletionProposal[0];
+        }
 
+        final int numCompletions = Iterables.size(completions);
+        final ICompletionProposal[] proposals = new ICompletionProposal[numCompletions];
+        int i = 0;
+        for(ICompletion nestedCompletion : completions) {
+            nestedCompletion.setNested(true);
+            nestedCompletion.setOptionalPlaceholder(placeholderItem.optional());
+            proposals[i] = new SpoofaxCompletionProposal(textViewer, offset, nestedCompletion, source, language,
+                informationControlCreator);
+            ++i;
+        }
+        return proposals;
+    }
 
+    /**
+     * Gets a parse result of the completed document, preferring the parse result of the editor update pipeline if it
+     * already parsed the completed text. The parse result is shared between the placeholders of this completion.
+     */
+    private @Nullable ISpoofaxParseUnit parseResult(IDocument document) {
+        final String text = document.get();
+        if(parsed != null && text.equals(parsedText)) {
+            return parsed;
+        }
 
-                return true;
+        // THREADING: linked mode asks for choices on the main thread, on which pipelines can be retrieved.
+        final EditorUpdatePipeline<ISpoofaxParseUnit, Object> pipeline =
+            EditorUpdatePipeline.<ISpoofaxParseUnit, Object>get(document);
+        ISpoofaxParseUnit parseResult = pipeline != null ? pipeline.parseState().parsed(text) : null;
+        if(parseResult == null) {
+            try {
+                final ISpoofaxInputUnit input = unitService.inputUnit(source, text, language, null);
+                parseResult = syntaxService.parse(input);
+            } catch(ParseException e) {
+                logger.error("Cannot parse completed text of {}", e, source);
+                return null;
             }
-        };
-        StrategoTermVisitee.topdown(visitor, ast);
+        }
+        if(parseResult.ast() == null) {
+            logger.debug("Cannot compute nested proposals, completed text of {} could not be parsed", source);
+            return null;
+        }
 
-        return result;
+        parsedText = text;
+        parsed = parseResult;
+        return parseResult;
     }
 
     @Override public Point getSelection(IDocument document) {
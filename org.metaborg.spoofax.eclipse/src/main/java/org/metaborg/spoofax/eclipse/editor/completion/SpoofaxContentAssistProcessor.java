@@ -1,60 +1,96 @@
 package org.metaborg.spoofax.eclipse.editor.completion;
 
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.vfs2.FileObject;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IInformationControlCreator;
 import org.eclipse.jface.text.ITextOperationTarget;
 import org.eclipse.jface.text.ITextViewer;
+import org.eclipse.jface.text.contentassist.ContentAssistEvent;
+import org.eclipse.jface.text.contentassist.ICompletionListener;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.ICompletionProposalExtension2;
 import org.eclipse.jface.text.contentassist.IContentAssistProcessor;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.contentassist.IContextInformationValidator;
 import org.eclipse.jface.text.source.ISourceViewer;
+import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.widgets.Display;
 import org.metaborg.core.MetaborgException;
 import org.metaborg.core.completion.ICompletion;
 import org.metaborg.core.completion.ICompletionService;
 import org.metaborg.core.language.ILanguageImpl;
-import org.metaborg.core.processing.parse.IParseResultRequester;
 import org.metaborg.core.syntax.IInputUnit;
 import org.metaborg.core.syntax.IParseUnit;
+import org.metaborg.core.syntax.ISyntaxService;
+import org.metaborg.core.syntax.ParseException;
 import org.metaborg.core.unit.IInputUnitService;
 import org.metaborg.spoofax.core.unit.ISpoofaxParseUnit;
 import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
+import org.metaborg.spoofax.eclipse.editor.EditorParseCache;
+import org.metaborg.spoofax.eclipse.editor.EditorPreferences;
+import org.metaborg.spoofax.eclipse.editor.EditorUpdatePipeline;
+import org.metaborg.spoofax.eclipse.job.ThreadKillerJob;
+import org.metaborg.spoofax.eclipse.util.LatencyHistogram;
+import org.metaborg.spoofax.eclipse.util.Nullable;
+import org.metaborg.spoofax.eclipse.util.StatusUtils;
 import org.metaborg.util.log.ILogger;
 import org.metaborg.util.log.LoggerUtils;
 
-import rx.Observable;
-import rx.Observable.OnSubscribe;
-import rx.Subscriber;
-import rx.Subscription;
-import rx.schedulers.Schedulers;
-
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 
+/**
+ * Computes completion proposals in a background job. Waits for the job for at most the completion time budget from the
+ * {@link EditorPreferences}. When the job takes longer, the popup shows the proposals of the previous computation that
+ * are still valid, and the popup is reopened without blocking when the job is done. Running computations are cancelled
+ * when a new computation is started, or when the popup is closed because the caret moved. Completions that were
+ * prefetched by the {@link CompletionPrefetcher} of the document are shown right away.
+ */
 public class SpoofaxContentAssistProcessor<I extends IInputUnit, P extends IParseUnit> implements
-    IContentAssistProcessor {
-    
+    IContentAssistProcessor, ICompletionListener {
     private static final ILogger logger = LoggerUtils.logger(SpoofaxContentAssistProcessor.class);
+    /**
+     * Time a cancelled completion job may keep running before it is considered hung and interrupted. Cancelled jobs
+     * normally stop at their next cancellation check, and their late results are dropped.
+     */
+    private static final long interruptTimeMillis = 10000;
+    private static final long killTimeMillis = 10000;
     
     private final IInputUnitService<I> unitService;
     private final ICompletionService<ISpoofaxParseUnit> completionService;
-    private final IParseResultRequester<I, P> parseResultRequester;
+    private final ISyntaxService<I, P> syntaxService;
+    private final EditorParseCache parseCache;
+    private final IPreferenceStore preferenceStore;
     private final FileObject resource;
     private final IDocument document;
     private final ILanguageImpl language;
     private final IInformationControlCreator informationControlCreator;
 
-    private Subscription parseResultSubscription;
-    private volatile ICompletionProposal[] cachedProposals;
+    private final LatencyHistogram parseWaitLatency = new LatencyHistogram("Completion parse wait");
+    private final LatencyHistogram proposalLatency = new LatencyHistogram("Completion proposal computation");
 
+    private volatile @Nullable CompletionJob job;
+    private volatile @Nullable CompletionJob ready;
+    private volatile @Nullable CompletionJob completed;
 
-    public SpoofaxContentAssistProcessor(IInputUnitService<I> unitService,
-        IParseResultRequester<I, P> parseResultRequester, IInformationControlCreator informationControlCreator,
-        FileObject resource, IDocument document, ILanguageImpl language) {
+
+    public SpoofaxContentAssistProcessor(IInputUnitService<I> unitService, ISyntaxService<I, P> syntaxService,
+        EditorParseCache parseCache, IPreferenceStore preferenceStore,
+        IInformationControlCreator informationControlCreator, FileObject resource, IDocument document,
+        ILanguageImpl language) {
         this.unitService = unitService;
         this.completionService = SpoofaxPlugin.spoofax().completionService;
-        this.parseResultRequester = parseResultRequester;
+        this.syntaxService = syntaxService;
+        this.parseCache = parseCache;
+        this.preferenceStore = preferenceStore;
         this.informationControlCreator = informationControlCreator;
         this.resource = resource;
         this.document = document;
@@ -63,52 +99,157 @@ public class SpoofaxContentAssistProcessor<I extends IInputUnit, P extends IPars
 
 
     @Override public ICompletionProposal[] computeCompletionProposals(final ITextViewer viewer, final int offset) {
-        if(cachedProposals != null) {
-            final ICompletionProposal[] proposals = cachedProposals;
-            cachedProposals = null;
-            return proposals;
+        final String text = document.get();
+
+        // Reopened by a job that finished after the time budget.
+        final CompletionJob readyJob = ready;
+        ready = null;
+        if(readyJob != null) {
+            final List<ICompletionProposal> proposals = validProposals(readyJob, text, offset);
+            if(proposals != null) {
+                return proposals.toArray(new ICompletionProposal[proposals.size()]);
+            }
         }
 
-        if(parseResultSubscription != null) {
-            parseResultSubscription.unsubscribe();
+        final CompletionJob previousJob = job;
+        if(previousJob != null) {
+            previousJob.cancel();
         }
 
-        final I input = unitService.inputUnit(resource, document.get(), language, null);
+        // THREADING: pipelines can only be retrieved on the main thread, get its document version here as well.
+        final EditorUpdatePipeline<P, Object> pipeline = EditorUpdatePipeline.<P, Object>get(document);
+        final long documentVersion = pipeline != null ? pipeline.documentVersion() : -1;
 
+        final CompletionPrefetcher<P, Object> completionPrefetcher =
+            pipeline != null ? pipeline.completionPrefetcher() : null;
+        if(completionPrefetcher != null) {
+            final Iterable<ICompletion> prefetched = completionPrefetcher.get(documentVersion, offset);
+            if(prefetched != null) {
+                logger.trace("Completing on completions prefetched at offset {}", offset);
+                job = null;
+                return proposals(prefetched, viewer, offset);
+            }
+        }
 
-        parseResultSubscription = Observable.create(new OnSubscribe<Void>() {
-            @Override public void call(final Subscriber<? super Void> subscriber) {
-                if(subscriber.isUnsubscribed()) {
-                    return;
-                }
-                // TODO: support dialects
+        final CompletionJob newJob = new CompletionJob(viewer, text, pipeline, documentVersion, offset);
+        job = newJob;
+        newJob.schedule();
 
-                final ISpoofaxParseUnit parseResult =
-                    (ISpoofaxParseUnit) parseResultRequester.request(input).toBlocking().first();
+        final long budgetMs = preferenceStore.getLong(EditorPreferences.completionTimeBudget);
+        try {
+            if(newJob.done.await(budgetMs, TimeUnit.MILLISECONDS)) {
+                return newJob.proposals;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(!newJob.handOff()) {
+            // Finished right after the time budget ran out.
+            return newJob.proposals;
+        }
 
-                if(subscriber.isUnsubscribed()) {
-                    return;
-                }
-                cachedProposals = proposals(parseResult, viewer, offset);
+        logger.trace("Completion at offset {} exceeded the time budget of {}ms, continuing in the background", offset,
+            budgetMs);
+        final List<ICompletionProposal> proposals = Lists.newArrayList();
+        final CompletionJob completedJob = completed;
+        if(completedJob != null) {
+            final List<ICompletionProposal> previousProposals = validProposals(completedJob, text, offset);
+            if(previousProposals != null) {
+                proposals.addAll(previousProposals);
+            }
+        }
+        proposals.add(new PendingCompletionProposal());
+        return proposals.toArray(new ICompletionProposal[proposals.size()]);
+    }
 
+    @Override public void assistSessionStarted(ContentAssistEvent event) {
 
-                if(cachedProposals == null) {
-                    return;
-                }
+    }
 
-                Display.getDefault().syncExec(new Runnable() {
-                    @Override public void run() {
-                        if(subscriber.isUnsubscribed()) {
-                            return;
-                        }
-                        final ITextOperationTarget target = (ITextOperationTarget) viewer;
-                        target.doOperation(ISourceViewer.CONTENTASSIST_PROPOSALS);
-                    }
-                });
+    @Override public void assistSessionEnded(ContentAssistEvent event) {
+        // The popup was closed, for example because the caret moved, the running computation is not needed any more.
+        final CompletionJob runningJob = job;
+        if(runningJob != null && runningJob.getState() != Job.NONE) {
+            logger.trace("Cancelling completion at offset {}, completion session ended", runningJob.offset);
+            // Forget the job first, such that it does not reopen the popup that was just closed.
+            job = null;
+            runningJob.cancel();
+        }
+    }
+
+    @Override public void selectionChanged(ICompletionProposal proposal, boolean smartToggle) {
+
+    }
+
+    /**
+     * @return Histogram of the time between requesting completions and having a parse result to complete on.
+     */
+    public LatencyHistogram parseWaitLatency() {
+        return parseWaitLatency;
+    }
+
+    /**
+     * @return Histogram of the time it takes to compute proposals from a parse result.
+     */
+    public LatencyHistogram proposalLatency() {
+        return proposalLatency;
+    }
+
+
+    /**
+     * @return Proposals of given job that are valid at given offset, or null if the job has no proposals, or if the
+     *         text before the offset the proposals were computed at has changed.
+     */
+    private @Nullable List<ICompletionProposal> validProposals(CompletionJob job, String text, int offset) {
+        final ICompletionProposal[] proposals = job.proposals;
+        if(proposals == null || offset < job.offset || !text.regionMatches(0, job.text, 0, job.offset)) {
+            return null;
+        }
+        final List<ICompletionProposal> valid = Lists.newArrayList();
+        for(ICompletionProposal proposal : proposals) {
+            if(!(proposal instanceof ICompletionProposalExtension2)
+                || ((ICompletionProposalExtension2) proposal).validate(document, offset, null)) {
+                valid.add(proposal);
             }
-        }).observeOn(Schedulers.computation()).subscribeOn(Schedulers.computation()).subscribe();
+        }
+        return valid;
+    }
 
-        return null;
+    /**
+     * Gets a parse result of given text, preferring the parse result of the editor update pipeline if it was parsed
+     * from the current document version, then a parse result of the same text, and only parses when neither exists.
+     * Parses the text directly instead of requesting a parse result for the resource, because the parse result of the
+     * resource may still be of a previous text while the editor update waits for its delay; such a result must never be
+     * cached under the key of the current text.
+     */
+    private P parseResult(String text, @Nullable EditorUpdatePipeline<P, Object> pipeline, long documentVersion)
+        throws ParseException {
+        if(pipeline != null) {
+            P parseResult = pipeline.parseState().parsedAt(documentVersion);
+            if(parseResult != null) {
+                logger.trace("Completing on editor parse result of document version {}", documentVersion);
+                return parseResult;
+            }
+            parseResult = pipeline.parseState().parsed(text);
+            if(parseResult != null) {
+                logger.trace("Completing on editor parse result of the same text");
+                return parseResult;
+            }
+        }
+
+        // TODO: support dialects
+        final EditorParseCache.Key key = parseCache.key(resource, text, language, null);
+        final EditorParseCache.Entry<P, Object> cached = parseCache.<P, Object>get(key);
+        if(cached != null) {
+            logger.trace("Completing on cached parse result");
+            return cached.parseResult;
+        }
+
+        final I input = unitService.inputUnit(resource, text, language, null);
+        final P parseResult = syntaxService.parse(input);
+        // Cache for the next invocation on the same text, and for the editor update that follows.
+        parseCache.put(key, parseResult);
+        return parseResult;
     }
 
     private ICompletionProposal[] proposals(ISpoofaxParseUnit parseResult, ITextViewer viewer, int offset) {
@@ -119,19 +260,190 @@ public class SpoofaxContentAssistProcessor<I extends IInputUnit, P extends IPars
             logger.error("Stratego completions framework failed at offset {}", e, offset);
             return null;
         }
+        return proposals(completions, viewer, offset);
+    }
 
+    private ICompletionProposal[] proposals(Iterable<ICompletion> completions, ITextViewer viewer, int offset) {
         final int numCompletions = Iterables.size(completions);
         final ICompletionProposal[] proposals = new ICompletionProposal[numCompletions];
         int i = 0;
         for(ICompletion completion : completions) {
-            proposals[i] =
-                new SpoofaxCompletionProposal(viewer, offset, completion, parseResult.source(), parseResult.input()
-                    .langImpl(), informationControlCreator);
+            proposals[i] = new SpoofaxCompletionProposal(viewer, offset, completion, resource, language,
+                informationControlCreator);
             ++i;
         }
         return proposals;
     }
 
+    /**
+     * Job that computes proposals at an offset. Proposals are taken directly by the processor when the job finishes
+     * within the time budget, otherwise the job hands them off by reopening the popup.
+     */
+    private class CompletionJob extends Job {
+        private final ITextViewer viewer;
+        private final String text;
+        private final @Nullable EditorUpdatePipeline<P, Object> pipeline;
+        private final long documentVersion;
+        private final int offset;
+        private final long startNs = System.nanoTime();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile @Nullable ICompletionProposal[] proposals;
+        private boolean finished = false;
+        private boolean handOff = false;
+        private boolean stopped = false;
+        private @Nullable ThreadKillerJob threadKiller;
+
+
+        public CompletionJob(ITextViewer viewer, String text, @Nullable EditorUpdatePipeline<P, Object> pipeline,
+            long documentVersion, int offset) {
+            super("Computing completion proposals");
+            setSystem(true);
+            setPriority(Job.INTERACTIVE);
+
+            this.viewer = viewer;
+            this.text = text;
+            this.pipeline = pipeline;
+            this.documentVersion = documentVersion;
+            this.offset = offset;
+        }
+
+
+        @Override protected IStatus run(IProgressMonitor monitor) {
+            IStatus status;
+            try {
+                status = compute(monitor);
+            } catch(ThreadDeath e) {
+                status = StatusUtils.cancel();
+            } finally {
+                stopped();
+            }
+
+            if(status.isOK()) {
+                completed = this;
+            } else {
+                // The popup may show the pending proposal, which never becomes invalid. Replace it with the still valid
+                // proposals of the previous computation, or with no proposals, which closes the popup.
+                proposals = previousProposals();
+            }
+            done.countDown();
+            if(finish()) {
+                reopen();
+            }
+            return status;
+        }
+
+        private IStatus compute(IProgressMonitor monitor) {
+            try {
+                if(monitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                final ISpoofaxParseUnit parseResult =
+                    (ISpoofaxParseUnit) parseResult(text, pipeline, documentVersion);
+                parseWaitLatency.record(System.nanoTime() - startNs);
+
+                if(monitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                final long proposalsStartNs = System.nanoTime();
+                final ICompletionProposal[] proposals = proposals(parseResult, viewer, offset);
+                proposalLatency.record(System.nanoTime() - proposalsStartNs);
+                logger.trace("{}; {}", parseWaitLatency, proposalLatency);
+
+                if(monitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                if(proposals == null) {
+                    // Failure was logged when computing proposals.
+                    return StatusUtils.silentError();
+                }
+                this.proposals = proposals;
+                return StatusUtils.success();
+            } catch(ParseException | RuntimeException e) {
+                if(monitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                final String message = logger.format("Computing completion proposals at offset {} failed", offset);
+                logger.error(message, e);
+                return StatusUtils.silentError(message, e);
+            }
+        }
+
+        private ICompletionProposal[] previousProposals() {
+            final CompletionJob completedJob = completed;
+            if(completedJob != null) {
+                final List<ICompletionProposal> previousProposals = validProposals(completedJob, text, offset);
+                if(previousProposals != null) {
+                    return previousProposals.toArray(new ICompletionProposal[previousProposals.size()]);
+                }
+            }
+            return new ICompletionProposal[0];
+        }
+
+        @Override protected synchronized void canceling() {
+            final Thread thread = getThread();
+            if(thread == null || stopped) {
+                return;
+            }
+            // Killing a completion strategy can leave shared runtime state inconsistent, only do so when it hangs.
+            threadKiller = new ThreadKillerJob(thread, killTimeMillis);
+            threadKiller.schedule(interruptTimeMillis);
+        }
+
+        /**
+         * Marks the computation as stopped, such that its thread, which runs other jobs afterwards, is not killed.
+         */
+        private synchronized void stopped() {
+            stopped = true;
+            if(threadKiller != null) {
+                threadKiller.cancel();
+                threadKiller = null;
+            }
+        }
+
+
+        /**
+         * Requests this job to reopen the popup when it finishes.
+         *
+         * @return False if the job already finished, such that its proposals can be taken directly.
+         */
+        private synchronized boolean handOff() {
+            if(finished) {
+                return false;
+            }
+            handOff = true;
+            return true;
+        }
+
+        /**
+         * @return True if the popup must be reopened.
+         */
+        private synchronized boolean finish() {
+            finished = true;
+            return handOff;
+        }
+
+        private void reopen() {
+            ready = this;
+            // THREADING: do not wait for the main thread, it may be busy.
+            Display.getDefault().asyncExec(new Runnable() {
+                @Override public void run() {
+                    final StyledText textWidget = viewer.getTextWidget();
+                    if(job != CompletionJob.this || textWidget == null || textWidget.isDisposed()) {
+                        return;
+                    }
+                    if(viewer.getSelectedRange().x < offset) {
+                        // Caret moved before the completion offset, proposals are stale.
+                        return;
+                    }
+                    final ITextOperationTarget target = (ITextOperationTarget) viewer;
+                    target.doOperation(ISourceViewer.CONTENTASSIST_PROPOSALS);
+                }
+            });
+        }
+    }
+
+
     @Override public IContextInformation[] computeContextInformation(ITextViewer viewer, int offset) {
         return null;
     }
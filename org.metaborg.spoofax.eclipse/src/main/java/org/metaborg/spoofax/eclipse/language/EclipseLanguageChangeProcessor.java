@@ -1,14 +1,19 @@
 package org.metaborg.spoofax.eclipse.language;
 
-import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.apache.commons.vfs2.FileObject;
-import org.apache.commons.vfs2.FileSystemException;
+import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.ui.IEditorRegistry;
 import org.eclipse.ui.PlatformUI;
@@ -17,7 +22,6 @@ import org.metaborg.core.language.ILanguageCache;
 import org.metaborg.core.language.ILanguageComponent;
 import org.metaborg.core.language.ILanguageIdentifierService;
 import org.metaborg.core.language.ILanguageImpl;
-import org.metaborg.core.language.LanguageFileSelector;
 import org.metaborg.core.language.ResourceExtensionFacet;
 import org.metaborg.core.language.dialect.IDialectProcessor;
 import org.metaborg.core.processing.LanguageChangeProcessor;
@@ -25,12 +29,14 @@ import org.metaborg.spoofax.eclipse.editor.SpoofaxEditor;
 import org.metaborg.spoofax.eclipse.resource.IEclipseResourceService;
 import org.metaborg.spoofax.eclipse.util.EditorMappingUtils;
 import org.metaborg.spoofax.eclipse.util.MarkerUtils;
-import org.metaborg.spoofax.eclipse.util.ResourceUtils;
+import org.metaborg.spoofax.eclipse.util.StatusUtils;
 import org.metaborg.util.log.ILogger;
 import org.metaborg.util.log.LoggerUtils;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 
@@ -124,27 +130,27 @@ public class EclipseLanguageChangeProcessor extends LanguageChangeProcessor {
 
     @Override public void removedImpl(ILanguageImpl language) {
         if(languageIdentifier.available(language)) {
-            try {
-                final Collection<FileObject> resources =
-                    ResourceUtils.workspaceResources(resourceService, new LanguageFileSelector(languageIdentifier,
-                        language), workspace.getRoot());
-                final Collection<IResource> eclipseResources =
-                    ResourceUtils.toEclipseResources(resourceService, resources);
-                logger.debug("Removing markers from {} workspace resources", resources.size());
-                for(IResource resource : eclipseResources) {
-                    try {
-                        MarkerUtils.clearAll(resource);
-                    } catch(CoreException e) {
-                        final String message = String.format("Cannot remove markers for resource %s", resource);
-                        logger.error(message, e);
+            final Set<String> extensions = Sets.newHashSet();
+            for(ILanguageComponent component : language.components()) {
+                extensions.addAll(getExtensions(component));
+            }
+            if(!extensions.isEmpty()) {
+                // Collect markers now, while the language can still be identified, and before a new version of the
+                // language creates markers that must not be removed.
+                try {
+                    final List<IMarker> markers = languageMarkers(language, extensions);
+                    if(!markers.isEmpty()) {
+                        final Job job = new MarkerRemovalJob(language, markers);
+                        job.setRule(workspace.getRuleFactory().markerRule(workspace.getRoot()));
+                        job.schedule();
                     }
+                } catch(CoreException e) {
+                    final String message = String.format("Cannot remove markers for %s", language);
+                    logger.error(message, e);
                 }
-            } catch(FileSystemException e) {
-                final String message = String.format("Cannot retrieve all workspace resources for %s", language);
-                logger.error(message, e);
             }
         }
-        
+
         super.removedImpl(language);
     }
 
@@ -156,4 +162,67 @@ public class EclipseLanguageChangeProcessor extends LanguageChangeProcessor {
         }
         return extensions;
     }
+
+
+    /**
+     * Finds the Spoofax markers of resources of given language, with a single marker query instead of visiting all
+     * workspace resources. Markers of resources with one of the extensions of the language are kept when the resource
+     * is identified as a resource of the language, such that markers of other languages with the same extensions are
+     * kept.
+     */
+    private List<IMarker> languageMarkers(ILanguageImpl language, Set<String> extensions) throws CoreException {
+        final List<IMarker> markers = Lists.newArrayList();
+        final Map<IResource, Boolean> identified = Maps.newHashMap();
+        for(IMarker marker : MarkerUtils.findAllRec(workspace.getRoot())) {
+            final IResource resource = marker.getResource();
+            final String extension = resource.getFileExtension();
+            if(extension == null || !extensions.contains(extension)) {
+                continue;
+            }
+            Boolean ofLanguage = identified.get(resource);
+            if(ofLanguage == null) {
+                ofLanguage = languageIdentifier.identify(resourceService.resolve(resource), language);
+                identified.put(resource, ofLanguage);
+            }
+            if(ofLanguage) {
+                markers.add(marker);
+            }
+        }
+        logger.debug("Found {} markers on {} resources of {}", markers.size(), identified.size(), language);
+        return markers;
+    }
+
+
+    /**
+     * Removes given markers of a removed language in a single workspace operation.
+     */
+    private class MarkerRemovalJob extends WorkspaceJob {
+        private static final int batchSize = 1000;
+
+        private final ILanguageImpl language;
+        private final List<IMarker> markers;
+
+
+        public MarkerRemovalJob(ILanguageImpl language, List<IMarker> markers) {
+            super("Removing markers of " + language);
+            this.language = language;
+            this.markers = markers;
+        }
+
+
+        @Override public IStatus runInWorkspace(IProgressMonitor progressMonitor) throws CoreException {
+            logger.debug("Removing {} markers of {}", markers.size(), language);
+            // Markers that were removed in the meantime are ignored by the workspace.
+            final SubMonitor deleteMonitor = SubMonitor.convert(progressMonitor, markers.size());
+            for(List<IMarker> batch : Lists.partition(markers, batchSize)) {
+                if(deleteMonitor.isCanceled()) {
+                    return StatusUtils.cancel();
+                }
+                workspace.deleteMarkers(batch.toArray(new IMarker[batch.size()]));
+                deleteMonitor.worked(batch.size());
+            }
+
+            return StatusUtils.success();
+        }
+    }
 }
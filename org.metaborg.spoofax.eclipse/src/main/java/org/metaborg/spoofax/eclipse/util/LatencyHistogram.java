@@ -0,0 +1,88 @@
+package org.metaborg.spoofax.eclipse.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies with exponentially growing buckets: the first bucket holds latencies below 1 ms, bucket
+ * {@code i} holds latencies in {@code [2^(i-1), 2^i)} ms, and the last bucket holds all longer latencies. Can be used
+ * from any thread.
+ */
+public class LatencyHistogram {
+    private static final int buckets = 16;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(buckets);
+
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+
+    /**
+     * Records a latency.
+     *
+     * @param durationNs
+     *            Latency in nanoseconds.
+     */
+    public void record(long durationNs) {
+        final long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNs);
+        final int bucket = durationMs <= 0 ? 0 : Math.min(buckets - 1, 64 - Long.numberOfLeadingZeros(durationMs));
+        counts.incrementAndGet(bucket);
+    }
+
+    /**
+     * @return Number of recorded latencies.
+     */
+    public long count() {
+        long count = 0;
+        for(int i = 0; i < buckets; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Estimates a percentile of the recorded latencies.
+     *
+     * @param percentile
+     *            Percentile between 0 and 100.
+     * @return Upper bound in milliseconds of the bucket that holds the percentile, or 0 if nothing was recorded.
+     */
+    public long percentileMs(double percentile) {
+        final long count = count();
+        if(count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < buckets; ++i) {
+            seen += counts.get(i);
+            if(seen >= rank) {
+                return upperBoundMs(i);
+            }
+        }
+        return upperBoundMs(buckets - 1);
+    }
+
+    private static long upperBoundMs(int bucket) {
+        return 1L << bucket;
+    }
+
+
+    @Override public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(name);
+        sb.append(": ");
+        sb.append(count());
+        sb.append(" samples, p50 < ");
+        sb.append(percentileMs(50));
+        sb.append(" ms, p90 < ");
+        sb.append(percentileMs(90));
+        sb.append(" ms, p99 < ");
+        sb.append(percentileMs(99));
+        sb.append(" ms");
+        return sb.toString();
+    }
+}
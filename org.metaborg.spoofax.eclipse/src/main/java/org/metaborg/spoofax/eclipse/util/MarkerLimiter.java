@@ -0,0 +1,85 @@
+package org.metaborg.spoofax.eclipse.util;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.metaborg.core.messages.IMessage;
+import org.metaborg.core.messages.MessageFactory;
+import org.metaborg.core.messages.MessageSeverity;
+import org.metaborg.core.messages.MessageType;
+
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.LinkedHashMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+
+/**
+ * Limits the number of messages that are turned into markers, according to {@link MarkerLimits}. Messages over a limit
+ * are replaced by a single summary message per message type and severity. Keeps track of the number of messages per
+ * build; create a new limiter for each build. Not thread-safe.
+ */
+public class MarkerLimiter {
+    private final MarkerLimits limits;
+
+    private final Multiset<Entry<MessageType, MessageSeverity>> buildCounts = HashMultiset.create();
+    private int suppressed = 0;
+
+
+    public MarkerLimiter(MarkerLimits limits) {
+        this.limits = limits;
+    }
+
+
+    /**
+     * Limits given messages of a single resource.
+     *
+     * @param messages
+     *            Messages of a single resource.
+     * @return Messages within the limits, followed by a summary message for each message type and severity for which
+     *         messages were suppressed.
+     */
+    public List<IMessage> limit(Iterable<IMessage> messages) {
+        final List<IMessage> accepted = Lists.newArrayList();
+        final Multiset<Entry<MessageType, MessageSeverity>> resourceCounts = HashMultiset.create();
+        final Multiset<Entry<MessageType, MessageSeverity>> suppressedCounts = LinkedHashMultiset.create();
+        final Map<Entry<MessageType, MessageSeverity>, IMessage> firstSuppressed = Maps.newHashMap();
+
+        for(IMessage message : messages) {
+            final Entry<MessageType, MessageSeverity> kind = Maps.immutableEntry(message.type(), message.severity());
+            final int resourceLimit = limits.resourceLimit(message.type(), message.severity());
+            final int buildLimit = limits.buildLimit(message.type(), message.severity());
+            if((resourceLimit > 0 && resourceCounts.count(kind) >= resourceLimit)
+                || (buildLimit > 0 && buildCounts.count(kind) >= buildLimit)) {
+                suppressedCounts.add(kind);
+                if(!firstSuppressed.containsKey(kind)) {
+                    firstSuppressed.put(kind, message);
+                }
+                continue;
+            }
+            resourceCounts.add(kind);
+            buildCounts.add(kind);
+            accepted.add(message);
+        }
+
+        for(Multiset.Entry<Entry<MessageType, MessageSeverity>> entry : suppressedCounts.entrySet()) {
+            final Entry<MessageType, MessageSeverity> kind = entry.getElement();
+            final int count = entry.getCount();
+            final String text = count + " more " + kind.getKey().name().toLowerCase() + " "
+                + kind.getValue().name().toLowerCase() + "s suppressed";
+            accepted.add(MessageFactory.newAtTop(firstSuppressed.get(kind).source(), text, kind.getKey(),
+                kind.getValue(), null));
+            suppressed += count;
+        }
+
+        return accepted;
+    }
+
+    /**
+     * @return Total number of messages that were suppressed by this limiter.
+     */
+    public int suppressed() {
+        return suppressed;
+    }
+}
@@ -0,0 +1,89 @@
+package org.metaborg.spoofax.eclipse.util;
+
+import java.util.Map;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.metaborg.core.messages.MessageSeverity;
+import org.metaborg.core.messages.MessageType;
+import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Maximum number of markers to create per resource and per build, for each message type and severity. Limits are read
+ * from the preference store, a limit of 0 or less disables the limit.
+ */
+public class MarkerLimits {
+    public static final String id = SpoofaxPlugin.id + ".markers.limit";
+
+    private static final String resourceId = id + ".resource";
+    private static final String buildId = id + ".build";
+
+    public static final int defaultResourceLimit = 1000;
+    public static final int defaultBuildLimit = 50000;
+
+    private final Map<String, Integer> resourceLimits = Maps.newHashMap();
+    private final Map<String, Integer> buildLimits = Maps.newHashMap();
+
+
+    public MarkerLimits(IPreferenceStore store) {
+        for(MessageType type : MessageType.values()) {
+            for(MessageSeverity severity : MessageSeverity.values()) {
+                final String postfix = postfix(type, severity);
+                resourceLimits.put(postfix, store.getInt(resourceKey(type, severity)));
+                buildLimits.put(postfix, store.getInt(buildKey(type, severity)));
+            }
+        }
+    }
+
+
+    /**
+     * @return Marker limits from the preference store of the Spoofax plugin.
+     */
+    public static MarkerLimits fromPreferences() {
+        return new MarkerLimits(SpoofaxPlugin.plugin().getPreferenceStore());
+    }
+
+    public static void setDefaults(IPreferenceStore store) {
+        for(MessageType type : MessageType.values()) {
+            for(MessageSeverity severity : MessageSeverity.values()) {
+                store.setDefault(resourceKey(type, severity), defaultResourceLimit);
+                store.setDefault(buildKey(type, severity), defaultBuildLimit);
+            }
+        }
+    }
+
+    /**
+     * @return Preference key for the per-resource limit of given message type and severity.
+     */
+    public static String resourceKey(MessageType type, MessageSeverity severity) {
+        return resourceId + "." + postfix(type, severity);
+    }
+
+    /**
+     * @return Preference key for the per-build limit of given message type and severity.
+     */
+    public static String buildKey(MessageType type, MessageSeverity severity) {
+        return buildId + "." + postfix(type, severity);
+    }
+
+
+    /**
+     * @return Maximum number of markers of given type and severity on a single resource, or 0 or less if unlimited.
+     */
+    public int resourceLimit(MessageType type, MessageSeverity severity) {
+        return resourceLimits.get(postfix(type, severity));
+    }
+
+    /**
+     * @return Maximum number of markers of given type and severity in a single build, or 0 or less if unlimited.
+     */
+    public int buildLimit(MessageType type, MessageSeverity severity) {
+        return buildLimits.get(postfix(type, severity));
+    }
+
+
+    private static String postfix(MessageType type, MessageSeverity severity) {
+        return type.name().toLowerCase() + "." + severity.name().toLowerCase();
+    }
+}
@@ -0,0 +1,199 @@
+package org.metaborg.spoofax.eclipse.util;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.metaborg.core.messages.IMessage;
+import org.metaborg.core.source.ISourceRegion;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Updates the markers of a resource to match a set of messages, by comparing the messages with existing markers on
+ * type, region, severity, and text. Markers that match a message are kept, markers that only differ in region or text
+ * are updated in place, and only the remaining markers are deleted or created. This prevents resource deltas, Problems
+ * view churn, and marker persistence for messages that did not change. Must be called inside a workspace runnable, to
+ * batch marker changes.
+ */
+public final class MarkerReconciler {
+    /**
+     * Number of markers that were kept, updated, created, and deleted during reconciliation.
+     */
+    public static class Result {
+        public final int reused;
+        public final int updated;
+        public final int created;
+        public final int deleted;
+
+
+        public Result(int reused, int updated, int created, int deleted) {
+            this.reused = reused;
+            this.updated = updated;
+            this.created = created;
+            this.deleted = deleted;
+        }
+
+
+        @Override public String toString() {
+            return "reused: " + reused + ", updated: " + updated + ", created: " + created + ", deleted: " + deleted;
+        }
+    }
+
+
+    private static final String[] keyAttributes = new String[] { IMarker.CHAR_START, IMarker.CHAR_END,
+        IMarker.LINE_NUMBER, IMarker.MESSAGE, IMarker.TRANSIENT };
+
+
+    /**
+     * Reconciles markers of given type and its subtypes on given resource, with given messages.
+     *
+     * @param resource
+     *            Resource to reconcile markers for.
+     * @param type
+     *            Marker (super)type of the markers to reconcile, for example the parser marker type. Markers of other
+     *            types are not touched.
+     * @param messages
+     *            Messages that the markers should reflect.
+     * @return Reconciliation counts.
+     * @throws CoreException
+     *             When reading, creating, updating, or deleting markers fails.
+     */
+    public static Result reconcile(IResource resource, String type, Iterable<IMessage> messages)
+        throws CoreException {
+        final IMarker[] existing = resource.findMarkers(type, true, IResource.DEPTH_ZERO);
+
+        // Index existing markers by their key; duplicate messages result in multiple markers for the same key.
+        final Map<Key, Deque<IMarker>> markersByKey = Maps.newHashMapWithExpectedSize(existing.length);
+        for(IMarker marker : existing) {
+            final Key key = Key.of(marker);
+            Deque<IMarker> markers = markersByKey.get(key);
+            if(markers == null) {
+                markers = Lists.newLinkedList();
+                markersByKey.put(key, markers);
+            }
+            markers.add(marker);
+        }
+
+        // Keep markers that exactly match a message.
+        int reused = 0;
+        final List<IMessage> unmatched = Lists.newArrayList();
+        for(IMessage message : messages) {
+            final Deque<IMarker> markers = markersByKey.get(Key.of(message));
+            if(markers != null && !markers.isEmpty()) {
+                markers.poll();
+                ++reused;
+            } else {
+                unmatched.add(message);
+            }
+        }
+
+        // Group leftover markers by type, such that they can be updated in place for messages of the same type.
+        final Map<String, Deque<IMarker>> leftoverByType = Maps.newHashMap();
+        for(Entry<Key, Deque<IMarker>> entry : markersByKey.entrySet()) {
+            if(entry.getValue().isEmpty()) {
+                continue;
+            }
+            Deque<IMarker> markers = leftoverByType.get(entry.getKey().type);
+            if(markers == null) {
+                markers = Lists.newLinkedList();
+                leftoverByType.put(entry.getKey().type, markers);
+            }
+            markers.addAll(entry.getValue());
+        }
+
+        int updated = 0;
+        final List<IMessage> missing = Lists.newArrayList();
+        for(IMessage message : unmatched) {
+            final Deque<IMarker> markers = leftoverByType.get(MarkerUtils.type(message.type(), message.severity()));
+            if(markers != null && !markers.isEmpty()) {
+                MarkerUtils.setAttributes(markers.poll(), message);
+                ++updated;
+            } else {
+                missing.add(message);
+            }
+        }
+        final int created = MarkerUtils.createMarkers(resource, missing);
+
+        final List<IMarker> stale = Lists.newArrayList();
+        for(Deque<IMarker> markers : leftoverByType.values()) {
+            stale.addAll(markers);
+        }
+        final int deleted = stale.size();
+        if(deleted > 0) {
+            resource.getWorkspace().deleteMarkers(stale.toArray(new IMarker[deleted]));
+        }
+
+        return new Result(reused, updated, created, deleted);
+    }
+
+
+    /**
+     * Key of a marker or message, consisting of the attributes that {@link MarkerUtils#createMarker} sets. The
+     * severity is part of the marker type. Includes transience, such that markers are updated when the transient marker
+     * mode changes.
+     */
+    private static final class Key {
+        private final String type;
+        private final int charStart;
+        private final int charEnd;
+        private final int line;
+        private final String message;
+        private final boolean isTransient;
+
+
+        private Key(String type, int charStart, int charEnd, int line, String message, boolean isTransient) {
+            this.type = type;
+            this.charStart = charStart;
+            this.charEnd = charEnd;
+            this.line = line;
+            this.message = message;
+            this.isTransient = isTransient;
+        }
+
+        public static Key of(IMessage message) {
+            final String type = MarkerUtils.type(message.type(), message.severity());
+            final ISourceRegion region = message.region();
+            final boolean isTransient = MarkerUtils.transientMarkers();
+            if(region != null) {
+                return new Key(type, region.startOffset(), region.endOffset() + 1, region.startRow() + 1,
+                    message.message(), isTransient);
+            }
+            return new Key(type, -1, -1, 1, message.message(), isTransient);
+        }
+
+        public static Key of(IMarker marker) throws CoreException {
+            final Object[] values = marker.getAttributes(keyAttributes);
+            return new Key(marker.getType(), intValue(values[0], -1), intValue(values[1], -1), intValue(values[2], -1),
+                (String) values[3], Boolean.TRUE.equals(values[4]));
+        }
+
+        private static int intValue(Object value, int defaultValue) {
+            return value instanceof Integer ? (Integer) value : defaultValue;
+        }
+
+
+        @Override public int hashCode() {
+            return Objects.hashCode(type, charStart, charEnd, line, message, isTransient);
+        }
+
+        @Override public boolean equals(Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return charStart == other.charStart && charEnd == other.charEnd && line == other.line
+                && isTransient == other.isTransient && Objects.equal(type, other.type)
+                && Objects.equal(message, other.message);
+        }
+    }
+}
@@ -1,14 +1,22 @@
 package org.metaborg.spoofax.eclipse.util;
 
+import java.util.Collection;
+import java.util.Map.Entry;
+
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.metaborg.core.messages.IMessage;
 import org.metaborg.core.messages.MessageSeverity;
 import org.metaborg.core.messages.MessageType;
 import org.metaborg.core.source.ISourceRegion;
 import org.metaborg.spoofax.eclipse.SpoofaxPlugin;
 
+import com.google.common.collect.Multimap;
+
 /**
  * Utility functions for creating and removing {@link IMarker} instances.
  */
@@ -20,6 +28,30 @@ public final class MarkerUtils {
     private static final String infoPostfix = ".info";
     private static final String warningPostfix = ".warning";
     private static final String errorPostfix = ".error";
+    private static final String[] attributes = new String[] { IMarker.CHAR_START, IMarker.CHAR_END,
+        IMarker.LINE_NUMBER, IMarker.MESSAGE, IMarker.SEVERITY, IMarker.PRIORITY, IMarker.TRANSIENT };
+
+    private static volatile boolean transientMarkers = false;
+
+
+    /**
+     * Sets if markers created from now on are transient. Transient markers are not saved in the workspace snapshot,
+     * making workspace saves and startup faster, but must be recreated by a build or editor update after startup.
+     * 
+     * @param transientMarkers
+     *            True to create transient markers, false to create persistent markers.
+     */
+    public static void setTransientMarkers(boolean transientMarkers) {
+        MarkerUtils.transientMarkers = transientMarkers;
+    }
+
+    /**
+     * @return True if created markers are transient, false if they are persisted.
+     */
+    public static boolean transientMarkers() {
+        return transientMarkers;
+    }
+
 
 
     /**
@@ -36,18 +68,98 @@ public final class MarkerUtils {
     public static IMarker createMarker(IResource resource, IMessage message) throws CoreException {
         final String type = type(message.type(), message.severity());
         final IMarker marker = resource.createMarker(type);
+        setAttributes(marker, message);
+        return marker;
+    }
+
+    /**
+     * Creates markers for given resource, from given messages. Sets all attributes of a marker in one operation, and
+     * should be called inside a workspace runnable to batch the created markers into a single resource delta.
+     * 
+     * @param resource
+     *            Resource to create markers on.
+     * @param messages
+     *            Messages to create markers with.
+     * @return Number of created markers.
+     * @throws CoreException
+     *             When creating a marker fails.
+     */
+    public static int createMarkers(IResource resource, Iterable<IMessage> messages) throws CoreException {
+        int created = 0;
+        for(IMessage message : messages) {
+            createMarker(resource, message);
+            ++created;
+        }
+        return created;
+    }
+
+    /**
+     * Creates markers for given resources, from given messages, inside a single workspace runnable.
+     * 
+     * @param workspace
+     *            Workspace to run in.
+     * @param messages
+     *            Messages to create markers with, grouped by the resource to create markers on.
+     * @param monitor
+     *            Progress monitor, or null. Marker creation stops when the monitor is cancelled.
+     * @throws CoreException
+     *             When creating a marker fails.
+     */
+    public static void createMarkers(IWorkspace workspace, final Multimap<IResource, IMessage> messages,
+        @Nullable IProgressMonitor monitor) throws CoreException {
+        if(messages.isEmpty()) {
+            return;
+        }
+        final IWorkspaceRunnable runnable = new IWorkspaceRunnable() {
+            @Override public void run(IProgressMonitor workspaceMonitor) throws CoreException {
+                for(Entry<IResource, Collection<IMessage>> entry : messages.asMap().entrySet()) {
+                    if(workspaceMonitor.isCanceled()) {
+                        return;
+                    }
+                    createMarkers(entry.getKey(), entry.getValue());
+                }
+            }
+        };
+        // Markers do not require a scheduling rule.
+        workspace.run(runnable, null, IWorkspace.AVOID_UPDATE, monitor);
+    }
+
+    /**
+     * Sets the attributes of given marker from given message, in one operation. Does not change the type, and thus
+     * severity, of the marker. Marks the marker as transient if {@link #transientMarkers()} is enabled.
+     * 
+     * @param marker
+     *            Marker to set attributes of.
+     * @param message
+     *            Message to get attribute values from.
+     * @throws CoreException
+     *             When setting attributes fails.
+     */
+    public static void setAttributes(IMarker marker, IMessage message) throws CoreException {
         final ISourceRegion region = message.region();
+        final Object[] values;
         if(region != null) {
-            marker.setAttribute(IMarker.CHAR_START, region.startOffset());
-            marker.setAttribute(IMarker.CHAR_END, region.endOffset() + 1);
-            marker.setAttribute(IMarker.LINE_NUMBER, region.startRow() + 1);
+            values = new Object[] { region.startOffset(), region.endOffset() + 1, region.startRow() + 1,
+                message.message(), severity(message.severity()), IMarker.PRIORITY_NORMAL, transientMarkers };
         } else {
-            marker.setAttribute(IMarker.LINE_NUMBER, 1);
+            values = new Object[] { null, null, 1, message.message(), severity(message.severity()),
+                IMarker.PRIORITY_NORMAL, transientMarkers };
         }
-        marker.setAttribute(IMarker.MESSAGE, message.message());
-        marker.setAttribute(IMarker.SEVERITY, severity(message.severity()));
-        marker.setAttribute(IMarker.PRIORITY, IMarker.PRIORITY_NORMAL);
-        return marker;
+        marker.setAttributes(attributes, values);
+    }
+
+
+    /**
+     * Finds all Spoofax markers on given resource and its transitive child resources.
+     * 
+     * @param resource
+     *            Resource to find markers for.
+     * @return Found markers.
+     * @throws CoreException
+     *             When finding markers fails.
+     */
+    public static IMarker[] findAllRec(IResource resource) throws CoreException {
+        return resource.findMarkers(id, true, IResource.DEPTH_INFINITE);
     }
 
 